@@ -0,0 +1,171 @@
+package express.benchmark;
+
+import express.Express;
+import express.server.JdkServerEngine;
+import express.server.NioServerEngine;
+import express.server.ServerEngine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Local benchmark which compares the requests per second of the server engines.
+ * Every client thread keeps one connection alive and sends the next request
+ * as soon as the previous response is read.
+ * <pre>
+ *     gradle benchmark -Pargs="[clients] [seconds] [pipeline]"
+ * </pre>
+ */
+public class EngineBenchmark {
+
+    private static final int PORT = 18_181;
+    private static final byte[] REQUEST = ("GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int pipeline = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        System.out.printf("%d clients, %d seconds, %d pipelined request(s)%n", clients, seconds, pipeline);
+
+        run("jdk", new JdkServerEngine(), clients, seconds, 1);
+        run("nio", new NioServerEngine(), clients, seconds, 1);
+
+        if (pipeline > 1) {
+            run("nio pipelined", new NioServerEngine(), clients, seconds, pipeline);
+        }
+
+        System.exit(0);
+    }
+
+    private static void run(String name, ServerEngine engine, int clients, int seconds, int pipeline) throws Exception {
+        Express app = new Express();
+        app.setEngine(engine);
+        app.get("/hello", (req, res) -> res.send("Hello World"));
+        app.listen(PORT);
+
+        // Warm up both sides before measuring
+        measure(clients, 2, pipeline);
+        long requests = measure(clients, seconds, pipeline);
+
+        app.stop();
+        System.out.printf("%-14s %,12d req/s%n", name, requests / seconds);
+        Thread.sleep(500);
+    }
+
+    private static long measure(int clients, int seconds, int pipeline) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder requests = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+
+        byte[] batch = new byte[REQUEST.length * pipeline];
+        for (int i = 0; i < pipeline; i++) {
+            System.arraycopy(REQUEST, 0, batch, i * REQUEST.length, REQUEST.length);
+        }
+
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", PORT)) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = socket.getInputStream();
+                    ResponseReader reader = new ResponseReader(in);
+
+                    while (running.get()) {
+                        out.write(batch);
+
+                        for (int r = 0; r < pipeline; r++) {
+                            reader.read();
+                        }
+
+                        requests.add(pipeline);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Client failed: " + e.getMessage());
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return requests.sum();
+    }
+
+    /**
+     * Minimal response reader, only fixed length bodies are supported.
+     */
+    private static final class ResponseReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[16 * 1024];
+        private int start;
+        private int end;
+
+        private ResponseReader(InputStream in) {
+            this.in = in;
+        }
+
+        private void read() throws IOException {
+            int headEnd;
+            while ((headEnd = indexOfHeadEnd()) == -1) {
+                fill();
+            }
+
+            String head = new String(buffer, start, headEnd - start, StandardCharsets.ISO_8859_1);
+            int length = 0;
+            for (String line : head.split("\r\n")) {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+
+            start = headEnd;
+            while (end - start < length) {
+                fill();
+            }
+
+            start += length;
+        }
+
+        private int indexOfHeadEnd() {
+            for (int i = start; i + 3 < end; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                    return i + 4;
+                }
+            }
+
+            return -1;
+        }
+
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n == -1) {
+                throw new IOException("Connection closed by server.");
+            }
+
+            end += n;
+        }
+    }
+}
@@ -1,27 +1,42 @@
 package express;
 
-import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpsConfigurator;
-import com.sun.net.httpserver.HttpsServer;
 import express.database.CollectionOptions;
 import express.database.Database;
 import express.filter.FilterImpl;
 import express.filter.FilterLayerHandler;
 import express.filter.FilterTask;
 import express.filter.FilterWorker;
+import express.filter.MatchCache;
+import express.filter.ParamBinding;
+import express.http.AsyncHttpRequestHandler;
+import express.http.AsyncParamResolver;
 import express.http.HttpRequestHandler;
+import express.http.ParamResolver;
+import express.http.RouteOptions;
 import express.http.request.Request;
 import express.http.response.Response;
+import express.server.JdkServerEngine;
+import express.server.LocalExchange;
+import express.server.NioServerEngine;
+import express.server.ServerEngine;
+import express.server.WorkerPool;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static express.utils.Utils.getYourIp;
 
@@ -31,15 +46,34 @@ import static express.utils.Utils.getYourIp;
  */
 public class Express implements Router {
 
+    // Bounds of the default worker pools
+    private static final int DEFAULT_THREADS = 200;
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final int TASK_THREADS = 4;
+    private static final int TASK_QUEUE_SIZE = 64;
+
+    // Names of the built-in executors
+    public static final String DEFAULT_EXECUTOR = "default";
+    public static final String SSE_EXECUTOR = "sse";
+    public static final String UPLOAD_EXECUTOR = "upload";
+    public static final String TASK_EXECUTOR = "task";
+
     private final ConcurrentHashMap<String, HttpRequestHandler> parameterListener;
+    private final ConcurrentHashMap<String, ParamBinding> paramBindings;
     private final ConcurrentHashMap<Object, Object> locals;
+    private final ConcurrentHashMap<String, Executor> executors;
 
     private final ArrayList<FilterWorker> worker;
+    private final ArrayList<WorkerPool> pools;
     private final FilterLayerHandler handler;
 
+    private ScheduledThreadPoolExecutor scheduler;
+
     private Executor executor;
+    private long requestTimeout;
     private String hostname;
-    private HttpServer httpServer;
+    private ServerEngine engine;
+    private ServerEngine server;
     private HttpsConfigurator httpsConfigurator;
 
     private Database database = null;
@@ -47,12 +81,18 @@ public class Express implements Router {
     {
         // Initialize
         parameterListener = new ConcurrentHashMap<>();
+        paramBindings = new ConcurrentHashMap<>();
         locals = new ConcurrentHashMap<>();
+        executors = new ConcurrentHashMap<>();
 
         worker = new ArrayList<>();
+        pools = new ArrayList<>();
+
         handler = new FilterLayerHandler(2);
+        handler.setParamBindings(paramBindings);
 
-        executor = Executors.newCachedThreadPool();
+        // The pools start their threads on demand
+        createExecutors();
     }
 
     /**
@@ -150,6 +190,61 @@ public class Express implements Router {
      */
     public Express onParam(String param, HttpRequestHandler request) {
         parameterListener.put(param, request);
+        paramBindings.compute(param, (name, binding) -> (binding == null ? ParamBinding.of(name) : binding).withListener(request));
+        return this;
+    }
+
+    /**
+     * Add an resolver which turns an url parameter into an value, e.g. an user id into the user.
+     * The value is resolved once per request, even if multiple routes contain the parameter,
+     * and can be accessed via <code>req.getResolvedParam(param)</code>.
+     * Resolvers which are added after the server has started are used after <code>reload()</code>.
+     *
+     * @param param    The parameter name.
+     * @param resolver The resolver.
+     * @return Express this express instance
+     */
+    public Express param(String param, ParamResolver<?> resolver) {
+        return param(param, resolver, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add an resolver whose values are also reused by other requests with the same parameter value.
+     *
+     * @param param    The parameter name.
+     * @param resolver The resolver.
+     * @param ttl      How long an resolved value will be reused.
+     * @param unit     The unit of the ttl.
+     * @return Express this express instance
+     */
+    public Express param(String param, ParamResolver<?> resolver, long ttl, TimeUnit unit) {
+        paramBindings.compute(param, (name, binding) -> (binding == null ? ParamBinding.of(name) : binding).withResolver(resolver, ttl, unit));
+        return this;
+    }
+
+    /**
+     * Add an asynchronous resolver, the async resolvers of an route are started together
+     * so independent parameter are loaded in parallel.
+     *
+     * @param param    The parameter name.
+     * @param resolver The resolver.
+     * @return Express this express instance
+     */
+    public Express paramAsync(String param, AsyncParamResolver<?> resolver) {
+        return paramAsync(param, resolver, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add an asynchronous resolver whose values are also reused by other requests with the same parameter value.
+     *
+     * @param param    The parameter name.
+     * @param resolver The resolver.
+     * @param ttl      How long an resolved value will be reused.
+     * @param unit     The unit of the ttl.
+     * @return Express this express instance
+     */
+    public Express paramAsync(String param, AsyncParamResolver<?> resolver, long ttl, TimeUnit unit) {
+        paramBindings.compute(param, (name, binding) -> (binding == null ? ParamBinding.of(name) : binding).withAsyncResolver(resolver, ttl, unit));
         return this;
     }
 
@@ -157,6 +252,13 @@ public class Express implements Router {
         return parameterListener;
     }
 
+    /**
+     * @return The listener and resolvers of every parameter name.
+     */
+    public ConcurrentHashMap<String, ParamBinding> getParamBindings() {
+        return paramBindings;
+    }
+
     /**
      * Add an key-val pair to the express app, can be used
      * to store data. Uses ConcurrentHashMap so it's thread save.
@@ -180,20 +282,153 @@ public class Express implements Router {
     }
 
     /**
-     * Set an executor service. Default is CachedThreadPool
+     * Set an executor service. Default is an bounded WorkerPool
+     * which rejects requests with 503 if it is saturated.
      * Can only changed if the server isn't already stardet.
      *
      * @param executor The new executor.
      * @throws IOException If the server is currently running
      */
     public void setExecutor(Executor executor) throws IOException {
-        if (httpServer != null) {
+        if (server != null) {
             throw new IOException("Cannot set executor after the server has stardet!");
         } else {
             this.executor = executor;
         }
     }
 
+    /**
+     * @return The executor which runs the requests, an WorkerPool by default.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set an named executor. Routes choose it with {@link RouteOptions#executor(String)},
+     * server side events run on 'sse' and multipart uploads on 'upload' unless their route
+     * names another one. 'default' is the executor of all other requests and
+     * 'task' runs the updates of blocking {@link FilterTask}s.
+     * Can only changed if the server isn't already stardet.
+     *
+     * @param name     The name of the executor.
+     * @param executor The new executor.
+     * @throws IOException If the server is currently running
+     */
+    public void setExecutor(String name, Executor executor) throws IOException {
+        if (server != null) {
+            throw new IOException("Cannot set executor after the server has stardet!");
+        } else if (DEFAULT_EXECUTOR.equals(name)) {
+            this.executor = executor;
+        } else {
+            this.executors.put(name, executor);
+        }
+    }
+
+    /**
+     * @param name The name of the executor.
+     * @return The executor with this name, null if there is none.
+     */
+    public Executor getExecutor(String name) {
+        return DEFAULT_EXECUTOR.equals(name) ? executor : executors.get(name);
+    }
+
+    /**
+     * @return The workers of the filter tasks, they count the runs, failures and overruns of the updates.
+     */
+    public List<FilterWorker> getWorker() {
+        return Collections.unmodifiableList(worker);
+    }
+
+    /**
+     * Set the time budget of every request, routes can replace it with
+     * {@link RouteOptions#timeout(long)}. Once it passed the remaining handler
+     * are skipped and the response is '504 Gateway Timeout' if nobody answered.
+     * Handler can check it with {@link Request#isCancelled()}.
+     * Default is zero, requests have no deadline.
+     *
+     * @param requestTimeout The timeout in milliseconds, zero for no timeout.
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        if (requestTimeout < 0) {
+            throw new ExpressException("Request timeout cannot be negative.");
+        }
+
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * @return The time budget of every request in milliseconds, zero if there is none.
+     */
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Run every request on its own virtual thread instead of the WorkerPools.
+     * Handlers can then block on databases or outbound calls without holding
+     * an platform thread. The built-in 'sse', 'upload' and 'task' pools are
+     * replaced as well, named executors which were set before are kept.
+     * Requires Java 21 or newer.
+     * Can only changed if the server isn't already stardet.
+     *
+     * @return Express this express instance
+     * @throws ExpressException If the server is running or the JVM has no virtual threads.
+     */
+    public Express useVirtualThreads() {
+        if (server != null) {
+            throw new ExpressException("Cannot set executor after the server has stardet!");
+        }
+
+        Executor virtual;
+        try {
+            // Looked up at runtime, the library is still compiled for older java versions
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            virtual = (Executor) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExpressException("Virtual threads require Java 21 or newer.");
+        }
+
+        executor = replacePool(executor, virtual);
+
+        for (String name : new String[]{SSE_EXECUTOR, UPLOAD_EXECUTOR, TASK_EXECUTOR}) {
+            Executor current = executors.get(name);
+
+            if (pools.contains(current)) {
+                executors.put(name, replacePool(current, virtual));
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Set the server engine which accepts the requests.
+     * Default is the http server of the JDK.
+     * Can only changed if the server isn't already stardet.
+     *
+     * @param engine The new engine.
+     * @throws IOException If the server is currently running
+     */
+    public void setEngine(ServerEngine engine) throws IOException {
+        if (server != null) {
+            throw new IOException("Cannot set engine after the server has stardet!");
+        } else {
+            this.engine = engine;
+        }
+    }
+
+    /**
+     * @return The server engine, the JDK http server if none was set.
+     */
+    public ServerEngine getEngine() {
+        if (engine == null) {
+            engine = new JdkServerEngine(httpsConfigurator);
+        }
+
+        return engine;
+    }
+
     /**
      * Add an routing object.
      *
@@ -208,20 +443,42 @@ public class Express implements Router {
 
     /**
      * Add an routing object with an specific root root.
+     * Requests outside of the root skip the whole router, the
+     * same router can be added under multiple roots.
      *
      * @param root   The root path for all request to this router.
      * @param router The router.
      * @return Express this express instance
      */
-    @SuppressWarnings("unchecked")
     public Express use(String root, ExpressRouter router) {
+        this.handler.mount(root, router.getHandler());
+
+        // The router may already be added under an other root
+        for (FilterWorker filterWorker : router.getWorker()) {
+            if (!this.worker.contains(filterWorker)) {
+                this.worker.add(filterWorker);
+            }
+        }
 
-        router.getHandler().forEach(fl -> fl.getFilter().forEach(layer -> {
-            ((FilterImpl) layer).setRoot(root);
-        }));
+        return this;
+    }
 
-        this.handler.combine(router.getHandler());
-        this.worker.addAll(router.getWorker());
+    /**
+     * Add an routing object for an specific host. Its routes are only used for
+     * requests with a matching 'Host' header, every host gets an own route table.
+     *
+     * @param host   The host name, e.g. 'example.com', or an wildcard like '*.example.com'.
+     * @param router The router.
+     * @return Express this express instance
+     */
+    public Express host(String host, ExpressRouter router) {
+        this.handler.host(host, router.getHandler());
+
+        for (FilterWorker filterWorker : router.getWorker()) {
+            if (!this.worker.contains(filterWorker)) {
+                this.worker.add(filterWorker);
+            }
+        }
 
         return this;
     }
@@ -290,6 +547,38 @@ public class Express implements Router {
         return this;
     }
 
+    public Express useAsync(AsyncHttpRequestHandler middleware) {
+        return use(middleware);
+    }
+
+    public Express useAsync(String context, AsyncHttpRequestHandler middleware) {
+        return use(context, middleware);
+    }
+
+    public Express allAsync(String context, AsyncHttpRequestHandler request) {
+        return all(context, request);
+    }
+
+    public Express getAsync(String context, AsyncHttpRequestHandler request) {
+        return get(context, request);
+    }
+
+    public Express postAsync(String context, AsyncHttpRequestHandler request) {
+        return post(context, request);
+    }
+
+    public Express putAsync(String context, AsyncHttpRequestHandler request) {
+        return put(context, request);
+    }
+
+    public Express deleteAsync(String context, AsyncHttpRequestHandler request) {
+        return delete(context, request);
+    }
+
+    public Express patchAsync(String context, AsyncHttpRequestHandler request) {
+        return patch(context, request);
+    }
+
     /**
      * Middleware handler for Server Side Events.
      * Sets headers to enable SSE.
@@ -375,6 +664,51 @@ public class Express implements Router {
         return this;
     }
 
+    /**
+     * Cache the resolved handler chain for the most requested paths, a repeated
+     * request to the same method and path will skip the route matching.
+     * The cache is cleared whenever the route table changes.
+     *
+     * @param size The maximal amount of cached paths.
+     * @return Express this express instance
+     */
+    public Express enableMatchCache(int size) {
+        handler.setMatchCache(new MatchCache(size));
+        return this;
+    }
+
+    /**
+     * @return The cache for resolved handler chains with its hit and miss counters, null if it's not enabled.
+     */
+    public MatchCache getMatchCache() {
+        return handler.getMatchCache();
+    }
+
+    /**
+     * Answer requests with '405 Method Not Allowed' and an 'Allow' header if their path
+     * only has routes for other request methods and no handler has sent a response.
+     * Default is enabled.
+     *
+     * @param enabled True to send 405 responses.
+     * @return Express this express instance
+     */
+    public Express setMethodNotAllowed(boolean enabled) {
+        handler.setMethodNotAllowed(enabled);
+        return this;
+    }
+
+    /**
+     * Compile all routes and middleware into a new route table and swap it in atomically.
+     * Routes which are added after the server has started are only served after calling this,
+     * requests which are already running will finish with the previous table.
+     *
+     * @return Express this express instance
+     */
+    public Express reload() {
+        handler.compile();
+        return this;
+    }
+
     /**
      * Start the HTTP-Server on port 80.
      * This method is asynchronous so be sure to add an listener or keep it in mind!
@@ -423,32 +757,60 @@ public class Express implements Router {
      * @param port    The port.
      */
     public void listen(ExpressListener onStart, int port) {
+        start(onStart, port, null);
+    }
+
+    /**
+     * Start the HTTP-Server on an unix domain socket, e.g. for an reverse proxy on the same host.
+     * This method is asynchronous so be sure to add an listener or keep it in mind!
+     *
+     * @param socketPath The path of the socket file, it's removed when express stops.
+     */
+    public void listen(Path socketPath) {
+        listen(null, socketPath);
+        System.out.println("\nServer started: \t\tunix:" + socketPath.toAbsolutePath() + "\n");
+    }
+
+    /**
+     * Start the HTTP-Server on an unix domain socket.
+     * The server of the JDK can't listen on unix domain sockets, so the {@link NioServerEngine}
+     * is used if no engine was set.
+     * This method is asynchronous so be sure to add an listener or keep it in mind.
+     *
+     * @param onStart    An listener which will be fired after the server is stardet.
+     * @param socketPath The path of the socket file, it's removed when express stops.
+     */
+    public void listen(ExpressListener onStart, Path socketPath) {
+        if (engine == null) {
+            engine = new NioServerEngine();
+        }
+
+        start(onStart, 0, socketPath);
+    }
+
+    private void start(ExpressListener onStart, int port, Path socketPath) {
         new Thread(() -> {
             try {
 
                 // Fire worker threads
-                worker.forEach(FilterWorker::start);
+                Executor tasks = getExecutor(TASK_EXECUTOR);
+                worker.forEach(w -> w.start(scheduler, tasks));
 
-                InetSocketAddress socketAddress = this.hostname == null ? new InetSocketAddress(port) : new InetSocketAddress(this.hostname, port);
-                if (httpsConfigurator != null) {
+                // Compile the route table which will be used by the requests
+                handler.compile();
 
-                    // Create https server
-                    httpServer = HttpsServer.create(socketAddress, 0);
-                    ((HttpsServer) httpServer).setHttpsConfigurator(httpsConfigurator);
-                } else {
+                // Start server, every exchange is dispatched through the route table
+                ServerEngine engine = getEngine();
 
-                    // Create http server
-                    httpServer = HttpServer.create(socketAddress, 0);
+                // Admission happens on the thread of the engine, the route picks the executor
+                if (socketPath != null) {
+                    engine.start(socketPath, Runnable::run, exchange -> handler.dispatch(exchange, this));
+                } else {
+                    InetSocketAddress socketAddress = this.hostname == null ? new InetSocketAddress(port) : new InetSocketAddress(this.hostname, port);
+                    engine.start(socketAddress, Runnable::run, exchange -> handler.dispatch(exchange, this));
                 }
 
-                // Set thread executor
-                httpServer.setExecutor(executor);
-
-                // Create handler for all contexts
-                httpServer.createContext("/", exchange -> handler.handle(exchange, this));
-
-                // Start server
-                httpServer.start();
+                server = engine;
 
                 // Fire listener
                 if (onStart != null) {
@@ -461,6 +823,31 @@ public class Express implements Router {
         }).start();
     }
 
+    /**
+     * Send an request through the middleware and routes without an server or socket,
+     * e.g. to test or measure routes or to call an other service in the same process.
+     * The request runs on the executor of its route like every other request.
+     * Routes which are added after the first request are visible after {@link #reload()}.
+     *
+     * @param exchange The request.
+     * @return The result, completes with the exchange when the response is finished.
+     */
+    public CompletableFuture<LocalExchange> inject(LocalExchange exchange) {
+        handler.dispatch(exchange, this);
+        return exchange.getResult();
+    }
+
+    /**
+     * Send an request without body through the middleware and routes.
+     *
+     * @param method The request method.
+     * @param uri    The path with an optional query.
+     * @return The result, completes with the exchange when the response is finished.
+     */
+    public CompletableFuture<LocalExchange> inject(String method, String uri) {
+        return inject(new LocalExchange(method, uri));
+    }
+
     /**
      * Stop express
      */
@@ -469,13 +856,67 @@ public class Express implements Router {
             database.closeBrowser();
         }
 
-        if (httpServer != null) {
+        if (server != null) {
 
             // Stop http-server
-            httpServer.stop(0);
+            server.stop(0);
+            server = null;
 
             // Stop worker threads
             worker.forEach(FilterWorker::stop);
         }
+
+        // Shut down the built-in pools, their threads end after the queued requests are done.
+        // Fresh pools without threads take over, so express can be started again.
+        pools.forEach(WorkerPool::shutdown);
+        scheduler.shutdownNow();
+        createExecutors();
+    }
+
+    /**
+     * Create the scheduler and the built-in pools, executors which were set by the user are kept.
+     */
+    private void createExecutors() {
+        List<WorkerPool> stopped = new ArrayList<>(pools);
+        pools.clear();
+
+        scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "express-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Stopped workers shouldn't stay in the queue until their next update
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        executor = createPool(executor, stopped, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+
+        // Long-lived streams and uploads don't compete with short requests
+        executors.put(SSE_EXECUTOR, createPool(executors.get(SSE_EXECUTOR), stopped, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE));
+        executors.put(UPLOAD_EXECUTOR, createPool(executors.get(UPLOAD_EXECUTOR), stopped, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE));
+
+        // Blocking filter tasks update here instead of on the scheduler
+        executors.put(TASK_EXECUTOR, createPool(executors.get(TASK_EXECUTOR), stopped, TASK_THREADS, TASK_QUEUE_SIZE));
+    }
+
+    /**
+     * Shut down an built-in pool which is replaced, it has no requests yet.
+     */
+    private Executor replacePool(Executor current, Executor replacement) {
+        if (current instanceof WorkerPool && pools.remove(current)) {
+            ((WorkerPool) current).shutdown();
+        }
+
+        return replacement;
+    }
+
+    private Executor createPool(Executor current, List<WorkerPool> stopped, int threads, int queueSize) {
+        if (current != null && !stopped.contains(current)) {
+            return current;
+        }
+
+        WorkerPool pool = new WorkerPool(threads, queueSize);
+        pools.add(pool);
+        return pool;
     }
 }
@@ -20,4 +20,14 @@ public class ExpressException extends RuntimeException {
     public ExpressException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a new exception with the specified detail message and cause.
+     *
+     * @param message the detail message.
+     * @param cause   the cause, can be retrieved by the getCause() method.
+     */
+    public ExpressException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
\ No newline at end of file
@@ -4,7 +4,10 @@ import express.filter.FilterImpl;
 import express.filter.FilterLayerHandler;
 import express.filter.FilterTask;
 import express.filter.FilterWorker;
+import express.http.AsyncHttpRequestHandler;
 import express.http.HttpRequestHandler;
+import express.http.RouteOptions;
+import express.server.Bulkhead;
 
 import java.util.ArrayList;
 
@@ -16,6 +19,7 @@ public class ExpressRouter implements Router {
 
     private final ArrayList<FilterWorker> workers;
     private final FilterLayerHandler handler;
+    private final Bulkhead bulkhead;
 
     {
         // Initialize
@@ -23,6 +27,20 @@ public class ExpressRouter implements Router {
         handler = new FilterLayerHandler(2);
     }
 
+    public ExpressRouter() {
+        this.bulkhead = null;
+    }
+
+    /**
+     * Create an router whose routes share an bulkhead, routes with
+     * their own bulkhead in the RouteOptions keep it.
+     *
+     * @param bulkhead The bulkhead which limits the concurrent requests to the routes of this router.
+     */
+    public ExpressRouter(Bulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
     public ExpressRouter use(HttpRequestHandler middleware) {
         addMiddleware("*", "*", middleware);
         return this;
@@ -49,45 +67,86 @@ public class ExpressRouter implements Router {
     }
 
     public ExpressRouter all(HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("*", "*", request));
+        handler.add(1, new FilterImpl("*", "*", withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter all(String context, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("*", context, request));
+        handler.add(1, new FilterImpl("*", context, withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter all(String context, String requestMethod, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl(requestMethod, context, request));
+        handler.add(1, new FilterImpl(requestMethod, context, withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter get(String context, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("GET", context, request));
+        handler.add(1, new FilterImpl("GET", context, withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter post(String context, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("POST", context, request));
+        handler.add(1, new FilterImpl("POST", context, withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter put(String context, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("PUT", context, request));
+        handler.add(1, new FilterImpl("PUT", context, withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter delete(String context, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("DELETE", context, request));
+        handler.add(1, new FilterImpl("DELETE", context, withBulkhead(request)));
         return this;
     }
 
     public ExpressRouter patch(String context, HttpRequestHandler request) {
-        handler.add(1, new FilterImpl("PATCH", context, request));
+        handler.add(1, new FilterImpl("PATCH", context, withBulkhead(request)));
         return this;
     }
 
+    public ExpressRouter useAsync(AsyncHttpRequestHandler middleware) {
+        return use(middleware);
+    }
+
+    public ExpressRouter useAsync(String context, AsyncHttpRequestHandler middleware) {
+        return use(context, middleware);
+    }
+
+    public ExpressRouter allAsync(String context, AsyncHttpRequestHandler request) {
+        return all(context, request);
+    }
+
+    public ExpressRouter getAsync(String context, AsyncHttpRequestHandler request) {
+        return get(context, request);
+    }
+
+    public ExpressRouter postAsync(String context, AsyncHttpRequestHandler request) {
+        return post(context, request);
+    }
+
+    public ExpressRouter putAsync(String context, AsyncHttpRequestHandler request) {
+        return put(context, request);
+    }
+
+    public ExpressRouter deleteAsync(String context, AsyncHttpRequestHandler request) {
+        return delete(context, request);
+    }
+
+    public ExpressRouter patchAsync(String context, AsyncHttpRequestHandler request) {
+        return patch(context, request);
+    }
+
+    private HttpRequestHandler withBulkhead(HttpRequestHandler request) {
+        if (bulkhead == null) {
+            return request;
+        }
+
+        RouteOptions options = request instanceof RouteOptions ? (RouteOptions) request : RouteOptions.of(request);
+        return options.getBulkhead() != null ? options : options.bulkhead(bulkhead);
+    }
+
     ArrayList<FilterWorker> getWorker() {
         return workers;
     }
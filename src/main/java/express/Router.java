@@ -1,5 +1,6 @@
 package express;
 
+import express.http.AsyncHttpRequestHandler;
 import express.http.HttpRequestHandler;
 
 /**
@@ -108,4 +109,75 @@ public interface Router {
      */
     Router patch(String context, HttpRequestHandler request);
 
+    /**
+     * Add an async middleware, the following handler are fired when the returned stage completes.
+     *
+     * @param middleware An middleware which will be fired on every request-method and path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router useAsync(AsyncHttpRequestHandler middleware);
+
+    /**
+     * Add an async middleware, the following handler are fired when the returned stage completes.
+     *
+     * @param context    The context where the middleware should listen.
+     * @param middleware An middleware which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router useAsync(String context, AsyncHttpRequestHandler middleware);
+
+    /**
+     * Adds an async handler for a specific context.
+     *
+     * @param context The context.
+     * @param request An listener which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router allAsync(String context, AsyncHttpRequestHandler request);
+
+    /**
+     * Add an async listener for GET request's.
+     *
+     * @param context The context.
+     * @param request An listener which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router getAsync(String context, AsyncHttpRequestHandler request);
+
+    /**
+     * Add an async listener for POST request's.
+     *
+     * @param context The context.
+     * @param request An listener which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router postAsync(String context, AsyncHttpRequestHandler request);
+
+    /**
+     * Add an async listener for PUT request's.
+     *
+     * @param context The context.
+     * @param request An listener which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router putAsync(String context, AsyncHttpRequestHandler request);
+
+    /**
+     * Add an async listener for DELETE request's.
+     *
+     * @param context The context.
+     * @param request An listener which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router deleteAsync(String context, AsyncHttpRequestHandler request);
+
+    /**
+     * Add an async listener for PATCH request's.
+     *
+     * @param context The context.
+     * @param request An listener which will be fired if the context matches the request-path.
+     * @return The router itself to allow method call chaining.
+     */
+    Router patchAsync(String context, AsyncHttpRequestHandler request);
+
 }
@@ -1,15 +1,21 @@
 package express.filter;
 
+import express.http.AsyncHttpRequestHandler;
 import express.http.HttpRequestHandler;
+import express.http.RouteOptions;
+import express.http.request.PathParams;
 import express.http.request.Request;
 import express.http.response.Response;
 import express.utils.Status;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.logging.Level;
 
 /**
  * @author Simon Reinisch
@@ -28,6 +34,7 @@ public class FilterImpl implements HttpRequestHandler {
 
     private String root;
     private String fullContext;
+    private RoutePattern pattern;
 
     public FilterImpl(String requestMethod, String context, HttpRequestHandler httpRequest, boolean setSSE) {
         this.req = requestMethod;
@@ -41,6 +48,7 @@ public class FilterImpl implements HttpRequestHandler {
 
         this.root = "/";
         this.fullContext = this.context;
+        this.pattern = RoutePattern.compile(fullContext);
     }
 
     public FilterImpl(String requestMethod, String context, HttpRequestHandler httpRequest) {
@@ -55,6 +63,7 @@ public class FilterImpl implements HttpRequestHandler {
 
         this.root = "/";
         this.fullContext = this.context;
+        this.pattern = RoutePattern.compile(fullContext);
     }
 
     public void setRoot(String root) {
@@ -74,43 +83,120 @@ public class FilterImpl implements HttpRequestHandler {
 
         this.root = normalizePath(root);
         this.fullContext = normalizePath(this.root + context);
+        this.pattern = RoutePattern.compile(fullContext);
     }
 
     @Override
     public void handle(Request req, Response res) {
+        await(handle(req, res, 0, null), res);
+    }
+
+    /**
+     * Handle an request if it matches this filter.
+     *
+     * @param req      The request object.
+     * @param res      The response object.
+     * @param start    Index in the path where the context begins, the length of the root if the filter is mounted.
+     * @param bindings The precompiled param bindings, null to look them up.
+     * @return The stage of an async handler, null if the handler is already done.
+     */
+    CompletionStage<?> handle(Request req, Response res, int start, ParamBinding[] bindings) {
+        return handle(req, res, start, null, bindings);
+    }
+
+    /**
+     * Handle an request if it matches this filter, the filter is part of an
+     * router which is mounted under an root with parameter.
+     *
+     * @param req      The request object.
+     * @param res      The response object.
+     * @param start    Index in the path where the context begins, the end of the root.
+     * @param root     The params of the root, null if the root has none.
+     * @param bindings The precompiled param bindings of the root and the filter, null to look them up.
+     * @return The stage of an async handler, null if the handler is already done.
+     */
+    CompletionStage<?> handle(Request req, Response res, int start, PathParams root, ParamBinding[] bindings) {
         String requestMethod = req.getMethod();
         String requestPath = req.getURI().getRawPath();
-        ConcurrentHashMap<String, HttpRequestHandler> parameterListener = req.getApp().getParameterListener();
 
         if (!(reqAll || this.req.equals(requestMethod))) {
-            return;
+            return null;
         } else if (contextAll) {
-            req.setContext(context);
-            request.handle(req, res);
-            return;
+            return handle(req, res, root, null);
         }
 
-        // Parse params
-        HashMap<String, String> params = matchURL(fullContext, requestPath);
-        if (params == null) {
-            return;
+        // Match params
+        int count = pattern.getParamCount();
+        int[] offsets = count == 0 ? null : new int[count * 2];
+        long[] numbers = pattern.newNumbers();
+        if (!pattern.match(requestPath, start, offsets, numbers)) {
+            return null;
+        }
+
+        PathParams params = count == 0 ? PathParams.EMPTY : new PathParams(requestPath, pattern.getParamNames(), offsets, numbers);
+        return handle(req, res, root == null ? params : params.withRoot(root), bindings);
+    }
+
+    /**
+     * Handle an request which is already known to match this filter.
+     *
+     * @param req      The request object.
+     * @param res      The response object.
+     * @param params   The extracted url parameter, null if the context is '*' and there is no root with parameter.
+     * @param bindings The precompiled param bindings, null to look them up.
+     * @return The stage of async resolvers and an async handler, null if the handler is already done.
+     */
+    CompletionStage<?> handle(Request req, Response res, PathParams params, ParamBinding[] bindings) {
+        if (contextAll) {
+            req.setContext(context);
+
+            // An '*' filter below an root with parameter only knows the params of the root
+            if (params != null) {
+                req.setParams(params);
+            }
+
+            return fire(req, res);
         }
 
         // Save parameter to request object
         req.setParams(params);
 
-        // Check parameter listener
-        params.forEach((s, s2) -> {
-            HttpRequestHandler request = parameterListener.get(s);
+        if (params.size() > 0) {
+            if (bindings == null) {
+                bindings = ParamBinding.bind(pattern.getParamNames(), req.getApp().getParamBindings());
+            }
+
+            CompletableFuture<?>[] pending = resolveParams(req, res, params, bindings);
+
+            if (pending != null) {
+                CompletableFuture<Void> resolved = CompletableFuture.allOf(Arrays.stream(pending)
+                        .filter(Objects::nonNull)
+                        .toArray(CompletableFuture<?>[]::new));
+
+                // The worker isn't held while async resolvers are running, the route continues on its executor
+                if (!resolved.isDone()) {
+                    ParamBinding[] resolvedBindings = bindings;
+                    return resolved.handleAsync((result, error) -> !req.isCancelled() && setResolvedParams(req, res, params, resolvedBindings, pending) ? route(req, res) : null, req.getResumeExecutor())
+                            .thenCompose(stage -> stage != null ? stage : CompletableFuture.completedFuture(null));
+                }
 
-            if (request != null) {
-                request.handle(req, res);
+                if (!setResolvedParams(req, res, params, bindings, pending)) {
+                    return null;
+                }
             }
-        });
+        }
+
+        return route(req, res);
+    }
+
+    /**
+     * Run the route after its params were resolved.
+     */
+    private CompletionStage<?> route(Request req, Response res) {
 
         // Check if the response is closed
         if (res.isClosed()) {
-            return;
+            return null;
         }
 
         // set headers for SSE if enabled
@@ -122,62 +208,157 @@ public class FilterImpl implements HttpRequestHandler {
 
             try {
                 // Set header and send response
-                res.getRaw().getResponseHeaders().set("Content-Type", res.getContentType());
-                res.getRaw().sendResponseHeaders(res.getStatus(), res.getContentLength());
+                res.getExchange().getResponseHeaders().set("Content-Type", res.getContentType());
+                res.getExchange().sendResponseHeaders(res.getStatus(), res.getContentLength());
+
+                // Engines can hold the headers back until the body is flushed
+                res.getExchange().getResponseBody().flush();
             } catch (IOException ignore) { }
         }
 
         // Handle request
         req.setContext(context);
-        request.handle(req, res);
+        return fire(req, res);
     }
 
     /**
-     * Extract and match the parameter from the url with an filter.
+     * Run the handler, async handler are only started.
      */
-    private HashMap<String, String> matchURL(String filter, String url) {
-        HashMap<String, String> params = new HashMap<>();
-        StringBuilder key = new StringBuilder();
-        StringBuilder val = new StringBuilder();
-        char[] uc = url.toCharArray();
-        char[] fc = filter.toCharArray();
-        int ui = 0, fi = 0;
+    private CompletionStage<?> fire(Request req, Response res) {
+        HttpRequestHandler handler = request instanceof RouteOptions ? ((RouteOptions) request).getHandler() : request;
 
-        for (; fi < fc.length && ui < uc.length; fi++, ui++) {
+        if (!(handler instanceof AsyncHttpRequestHandler)) {
+            request.handle(req, res);
+            return null;
+        }
 
-            if (fc[fi] == ':') {
-                key.setLength(0);
-                val.setLength(0);
+        try {
+            CompletionStage<?> stage = ((AsyncHttpRequestHandler) handler).handleAsync(req, res);
+            return stage != null ? stage : CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<?> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
 
-                fi++;
+    /**
+     * Wait for the stage of an async handler, an failed handler is answered with 500.
+     *
+     * @param stage The stage, can be null.
+     * @param res   The response object.
+     */
+    static void await(CompletionStage<?> stage, Response res) {
+        if (stage == null) {
+            return;
+        }
 
-                while (fi < fc.length && fc[fi] != '/') {
-                    key.append(fc[fi++]);
-                }
+        try {
+            stage.toCompletableFuture().join();
+        } catch (CompletionException | CancellationException e) {
+            fail(e, res);
+        }
+    }
 
-                while (ui < uc.length && uc[ui] != '/') {
-                    val.append(uc[ui++]);
-                }
+    /**
+     * Answer an request whose handler failed.
+     *
+     * @param error The failure of the handler.
+     * @param res   The response object.
+     */
+    static void fail(Throwable error, Response res) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        res.getLogger().log(Level.WARNING, "Request handler failed.", cause);
 
-                try {
-                    String decVal = URLDecoder.decode(val.toString(), "UTF8");
-                    params.put(key.toString(), decVal);
-                } catch (UnsupportedEncodingException e) {
-                    e.printStackTrace();
-                }
+        if (!res.isClosed()) {
+            res.sendStatus(Status._500);
+        }
+    }
 
-            } else if (fc[fi] != uc[ui]) {
+    /**
+     * Fire the parameter listener and start the resolvers. Async resolvers run
+     * together, values which were already resolved during this request are reused.
+     *
+     * @return The results by param index, null if nothing has to be resolved.
+     */
+    private CompletableFuture<?>[] resolveParams(Request req, Response res, PathParams params, ParamBinding[] bindings) {
+        if (bindings.length == 0) {
+            return null;
+        }
 
-                // Failed
-                return null;
+        // Check parameter listener
+        for (ParamBinding binding : bindings) {
+            if (binding != null && binding.getListener() != null) {
+                binding.getListener().handle(req, res);
             }
         }
 
-        if (ui < url.length() || fi < filter.length()) {
+        // An listener can already answer the request, nothing needs to be resolved then
+        if (res.isClosed()) {
             return null;
         }
 
-        return params;
+        CompletableFuture<?>[] pending = null;
+        for (int i = 0; i < bindings.length; i++) {
+            ParamBinding binding = bindings[i];
+
+            if (binding == null || !binding.hasResolver() || req.isResolved(binding.getName(), params.getValue(i))) {
+                continue;
+            }
+
+            if (pending == null) {
+                pending = new CompletableFuture<?>[bindings.length];
+            }
+
+            pending[i] = binding.resolve(req, params.getValue(i));
+        }
+
+        return pending;
+    }
+
+    /**
+     * Save the results of completed resolvers into the request.
+     *
+     * @return False if an resolver failed, the failure is logged and the request is answered with 500.
+     */
+    private static boolean setResolvedParams(Request req, Response res, PathParams params, ParamBinding[] bindings, CompletableFuture<?>[] pending) {
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] == null) {
+                continue;
+            }
+
+            try {
+                req.setResolvedParam(bindings[i].getName(), params.getValue(i), pending[i].join());
+            } catch (CompletionException | CancellationException e) {
+                fail(e, res);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    String getRequestMethod() {
+        return req;
+    }
+
+    RoutePattern getPattern() {
+        return pattern;
+    }
+
+    boolean isContextAll() {
+        return contextAll;
+    }
+
+    boolean isSSE() {
+        return setSSE;
+    }
+
+    /**
+     * @return The options of the route, null if the handler isn't wrapped in RouteOptions.
+     */
+    RouteOptions getOptions() {
+        return request instanceof RouteOptions ? (RouteOptions) request : null;
     }
 
     /**
@@ -1,22 +1,19 @@
 package express.filter;
 
 import express.http.HttpRequestHandler;
-import express.http.request.Request;
-import express.http.response.Response;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author Simon Reinisch
  * <p>
- * Controller class for FilterLayer.
+ * Controller class for FilterLayer. Only holds the registered filter,
+ * requests are dispatched through the compiled {@link RouteTable}.
  */
 public class FilterLayer<T extends HttpRequestHandler> {
 
-    private final List<T> filter = Collections.synchronizedList(new ArrayList<>());
+    private final List<T> filter = new CopyOnWriteArrayList<>();
 
     public void add(T expressFilter) {
         this.filter.add(expressFilter);
@@ -33,12 +30,4 @@ public class FilterLayer<T extends HttpRequestHandler> {
     public List<T> getFilter() {
         return filter;
     }
-
-    void filter(Request req, Response res) {
-        ListIterator<T> iter = this.filter.listIterator();
-
-        while (!res.isClosed() && iter.hasNext()) {
-            iter.next().handle(req, res);
-        }
-    }
 }
@@ -4,9 +4,23 @@ import com.sun.net.httpserver.HttpExchange;
 import express.Express;
 import express.ExpressException;
 import express.http.HttpRequestHandler;
+import express.http.Priority;
 import express.http.request.Request;
 import express.http.response.Response;
+import express.server.Bulkhead;
+import express.server.Exchange;
+import express.server.JdkExchange;
+import express.server.WorkerPool;
+import express.utils.Status;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 /**
@@ -17,6 +31,10 @@ import java.util.function.Consumer;
 public class FilterLayerHandler {
 
     private final FilterLayer[] layers;
+    private volatile RouteTable table;
+    private volatile MatchCache cache;
+    private volatile boolean methodNotAllowed = true;
+    private volatile Map<String, ParamBinding> paramBindings = Collections.emptyMap();
 
     public FilterLayerHandler(int layers) {
 
@@ -28,19 +46,319 @@ public class FilterLayerHandler {
     }
 
     public void handle(HttpExchange httpExchange, Express express) {
-        Request request = new Request(httpExchange, express);
-        Response response = new Response(httpExchange);
+        handle(new JdkExchange(httpExchange), express);
+    }
+
+    /**
+     * Dispatch an exchange of any server engine.
+     *
+     * @param exchange The exchange.
+     * @param express  The express instance.
+     */
+    public void handle(Exchange exchange, Express express) {
+        RouteMatch match = resolve(exchange);
+        handle(exchange, express, match, express.getExecutor(), deadlineOf(express, match));
+    }
+
+    /**
+     * Resolve the route of an exchange on the calling thread and admit it to the executor
+     * of the route. If the executor is saturated, the request is answered with
+     * '503 Service Unavailable'.
+     *
+     * @param exchange The exchange.
+     * @param express  The express instance.
+     */
+    public void dispatch(Exchange exchange, Express express) {
+        RouteMatch match = resolve(exchange);
+        Executor executor = executorOf(exchange, express, match);
+        Instant deadline = deadlineOf(express, match);
 
-        // First fire all middleware's, then the normal request filter
-        for (FilterLayer chain : layers) {
-            chain.filter(request, response);
+        if (executor instanceof WorkerPool) {
+            WorkerPool pool = (WorkerPool) executor;
+            Priority priority = pool.priorityOf(exchange, match.getPriority());
+            int retryAfter = pool.getRetryAfter();
 
-            if (response.isClosed()) {
+            if (!pool.submit(() -> handle(exchange, express, match, pool, deadline), priority, () -> reject(exchange, retryAfter))) {
+                reject(exchange, retryAfter);
+            }
+        } else {
+            try {
+                executor.execute(() -> handle(exchange, express, match, executor, deadline));
+            } catch (RejectedExecutionException e) {
+                reject(exchange, -1);
+            }
+        }
+    }
+
+    /**
+     * The deadline of an request, the timeout of the route replaces the one of the app.
+     * The time an request waits for an worker counts too.
+     */
+    private static Instant deadlineOf(Express express, RouteMatch match) {
+        long timeout = match.getTimeout() > 0 ? match.getTimeout() : express.getRequestTimeout();
+        return timeout > 0 ? Instant.now().plusMillis(timeout) : null;
+    }
+
+    /**
+     * Find the executor of an request, uploads which don't name one get the upload executor.
+     * Unknown names use the default executor.
+     */
+    private static Executor executorOf(Exchange exchange, Express express, RouteMatch match) {
+        String name = match.getExecutor();
+
+        if (name == null) {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            name = contentType != null && contentType.startsWith("multipart/form-data") ? Express.UPLOAD_EXECUTOR : Express.DEFAULT_EXECUTOR;
+        }
+
+        Executor executor = express.getExecutor(name);
+        return executor != null ? executor : express.getExecutor();
+    }
+
+    private RouteMatch resolve(Exchange exchange) {
+
+        // Requests which are already running keep the table they started with
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        RouteTable table = getTable().forHost(host);
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+
+        MatchCache cache = this.cache;
+        RouteMatch match = cache != null ? cache.get(table, method, path) : null;
+
+        if (match == null) {
+            match = table.resolve(method, path);
+
+            if (cache != null) {
+                cache.put(getTable().forHost(host), method, path, match);
+
+                // An reload between the check and the insert would leave the old table in the cache
+                if (getTable().forHost(host) != table) {
+                    cache.remove(table);
+                }
+            }
+        }
+
+        return match;
+    }
+
+    private void handle(Exchange exchange, Express express, RouteMatch match, Executor executor, Instant deadline) {
+        Executor resume = resume(executor);
+        Executor fork = fork(executor, exchange, match);
+        Bulkhead bulkhead = match.getBulkhead();
+
+        if (bulkhead == null) {
+            run(exchange, express, match, resume, fork, null, deadline);
+        } else if (!bulkhead.submit(() -> run(exchange, express, match, resume, fork, bulkhead, deadline), resume)) {
+            Response response = new Response(exchange);
+            response.sendStatus(bulkhead.getRejectStatus());
+        }
+    }
+
+    private void run(Exchange exchange, Express express, RouteMatch match, Executor resume, Executor fork, Bulkhead bulkhead, Instant deadline) {
+        Request request = new Request(exchange, express);
+        Response response = new Response(exchange);
+        request.setDeadline(deadline);
+        request.setExecutor(fork);
+        request.setResumeExecutor(resume);
+
+        // Runs exactly once, even if an handler fails
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable release = () -> {
+            if (finished.compareAndSet(false, true)) {
+                request.finish();
+
+                if (bulkhead != null) {
+                    bulkhead.release();
+                }
+            }
+        };
+
+        // An streamed body is still sent after the chain, the request ends with it
+        Runnable finish = () -> {
+            CompletableFuture<Void> streaming = response.getStreaming();
+
+            if (streaming == null || streaming.isDone()) {
+                release.run();
                 return;
             }
+
+            request.onCancel(() -> streaming.cancel(false));
+            streaming.whenComplete((result, error) -> release.run());
+        };
+
+        try {
+            match.handle(request, response, resume, () -> {
+                try {
+
+                    // Nobody answered and the path only exists for other methods
+                    String allow = match.getAllow();
+                    if (allow != null && methodNotAllowed && !response.isClosed()) {
+                        response.setHeader("Allow", allow);
+                        response.sendStatus(Status._405);
+                    }
+                } finally {
+                    finish.run();
+                }
+            });
+        } catch (RuntimeException e) {
+            if (request.isCancelled()) {
+                RouteMatch.cancelled(request, response);
+            } else {
+                FilterImpl.fail(e, response);
+            }
+
+            finish.run();
+        }
+    }
+
+    /**
+     * The executor which continues an chain after an async handler. The request
+     * was already admitted, so it is never rejected but run on the completing
+     * thread if the executor is saturated.
+     */
+    private static Executor resume(Executor executor) {
+        if (executor instanceof WorkerPool) {
+            WorkerPool pool = (WorkerPool) executor;
+
+            return task -> {
+                if (!pool.submit(task, Priority.CRITICAL, null)) {
+                    task.run();
+                }
+            };
+        }
+
+        return task -> {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * The executor which runs the subtasks of forks. They are new work of the request,
+     * so they get its own priority and never push out queued requests of other clients.
+     * If the executor is saturated the fork runs them on the forking thread.
+     */
+    private static Executor fork(Executor executor, Exchange exchange, RouteMatch match) {
+        if (executor instanceof WorkerPool) {
+            WorkerPool pool = (WorkerPool) executor;
+            Priority priority = pool.priorityOf(exchange, match.getPriority());
+
+            return task -> {
+                if (!pool.offer(task, priority)) {
+                    throw new RejectedExecutionException("Worker pool is saturated.");
+                }
+            };
+        }
+
+        return executor;
+    }
+
+    private static void reject(Exchange exchange, int retryAfter) {
+        try {
+            if (retryAfter >= 0) {
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfter));
+            }
+
+            exchange.sendResponseHeaders(Status._503.getCode(), -1);
+        } catch (IOException ignore) {
+        } finally {
+            exchange.close();
         }
     }
 
+    /**
+     * Enable or disable the automatic '405 Method Not Allowed' response
+     * for paths which only have routes for other request methods.
+     * Default is enabled.
+     *
+     * @param methodNotAllowed True to send 405 responses.
+     */
+    public void setMethodNotAllowed(boolean methodNotAllowed) {
+        this.methodNotAllowed = methodNotAllowed;
+    }
+
+    /**
+     * Set the param bindings which will be compiled into the routes.
+     *
+     * @param paramBindings The bindings by parameter name.
+     */
+    public void setParamBindings(Map<String, ParamBinding> paramBindings) {
+        this.paramBindings = paramBindings;
+    }
+
+    /**
+     * Set an cache for resolved handler chains, null disables the cache.
+     *
+     * @param cache The cache.
+     */
+    public void setMatchCache(MatchCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return The cache for resolved handler chains, null if there is none.
+     */
+    public MatchCache getMatchCache() {
+        return cache;
+    }
+
+    /**
+     * Compile the registered filter into an new route table and publish it.
+     * Filter which are added afterwards are only visible after the next compile.
+     *
+     * @return The new route table.
+     */
+    public RouteTable compile() {
+        RouteTable table = RouteTable.compile(layers, paramBindings);
+        publish(table);
+        return table;
+    }
+
+    /**
+     * Atomically replace the current route table. Requests which are
+     * already running will finish with the table they started with.
+     *
+     * @param table The new route table.
+     * @return The previous route table, can be null.
+     */
+    public RouteTable swap(RouteTable table) {
+        if (table == null) {
+            throw new ExpressException("Cannot swap in an empty route table.");
+        }
+
+        if (table.size() != layers.length) {
+            throw new ExpressException("Cannot swap in an route table with different layers sizes: " + table.size() + " != " + layers.length);
+        }
+
+        RouteTable previous = this.table;
+        publish(table);
+        return previous;
+    }
+
+    private void publish(RouteTable table) {
+        this.table = table;
+
+        // Entries of the previous table won't be served anymore
+        MatchCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the current route table, compiles one if there is none yet.
+     *
+     * @return The current route table.
+     */
+    public RouteTable getTable() {
+        RouteTable table = this.table;
+        return table != null ? table : compile();
+    }
+
     /**
      * Add an new handler for an specific handler layers.
      *
@@ -81,6 +399,58 @@ public class FilterLayerHandler {
         }
     }
 
+    /**
+     * Mount an FilterLayerHandler under an root. The filter are not copied or
+     * changed, every layer gets an single entry which is only searched if the
+     * request path starts with the root. The same FilterLayerHandler can be
+     * mounted multiple times.
+     *
+     * @param root               The root path, e.g. '/api'.
+     * @param filterLayerHandler The FilterLayerHandler of the router.
+     */
+    @SuppressWarnings("unchecked")
+    public void mount(String root, FilterLayerHandler filterLayerHandler) {
+        if (filterLayerHandler == null) {
+            return;
+        }
+
+        FilterLayer<HttpRequestHandler>[] chains = filterLayerHandler.getLayers();
+        if (chains.length != layers.length) {
+            throw new ExpressException("Cannot mount an filterLayerHandler with different layers sizes: " + chains.length + " != " + layers.length);
+        }
+
+        for (int i = 0; i < chains.length; i++) {
+            layers[i].add(new Mount(root, chains[i]));
+        }
+    }
+
+    /**
+     * Bind an FilterLayerHandler to an host. Its filter are only part of the
+     * route table for that host, requests for other hosts don't see them.
+     *
+     * @param host               The host pattern, e.g. 'example.com' or '*.example.com'.
+     * @param filterLayerHandler The FilterLayerHandler of the router.
+     */
+    @SuppressWarnings("unchecked")
+    public void host(String host, FilterLayerHandler filterLayerHandler) {
+        if (host == null) {
+            throw new ExpressException("Host pattern cannot be null.");
+        }
+
+        if (filterLayerHandler == null) {
+            return;
+        }
+
+        FilterLayer<HttpRequestHandler>[] chains = filterLayerHandler.getLayers();
+        if (chains.length != layers.length) {
+            throw new ExpressException("Cannot add an filterLayerHandler with different layers sizes: " + chains.length + " != " + layers.length);
+        }
+
+        for (int i = 0; i < chains.length; i++) {
+            layers[i].add(new Mount("/", host, chains[i]));
+        }
+    }
+
     /**
      * Iterate over the different FilterLayer
      *
@@ -28,4 +28,14 @@ public interface FilterTask {
      * Will be fired on express-stop
      */
     void onStop();
+
+    /**
+     * Blocking tasks run their updates on an separate executor, so an slow
+     * update never delays the updates of other tasks.
+     *
+     * @return True if the updates can take long or block, false by default.
+     */
+    default boolean isBlocking() {
+        return false;
+    }
 }
@@ -1,44 +1,231 @@
 package express.filter;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author Simon Reinisch
  * <p>
- * Worker modul for FilterTasks.
+ * Worker modul for FilterTasks. The updates are scheduled on the shared scheduler
+ * of express, blocking tasks run their update on an separate executor. An update
+ * never overlaps with the previous one, if it takes longer than the delay the
+ * missed updates are skipped and counted as overrun. Every run is shifted by an
+ * small jitter so tasks with the same delay don't fire at the same time.
  */
-public class FilterWorker extends TimerTask {
+public class FilterWorker {
+
+    // Maximal share of the delay which is added as jitter
+    private static final double JITTER = 0.1;
+
+    // Scheduler of workers which are started outside of express
+    private static ScheduledExecutorService defaultScheduler;
 
     private final FilterTask middlewareWorker;
-    private Timer timer;
+    private final Logger logger;
+
+    private final AtomicLong runs;
+    private final AtomicLong failures;
+    private final AtomicLong overruns;
+    private final AtomicLong totalTime;
+    private volatile long lastTime;
+    private volatile long maxTime;
+
+    private volatile ScheduledExecutorService scheduler;
+    private volatile Executor executor;
+    private volatile ScheduledFuture<?> next;
+    private long planned;
+    private boolean overrun;
 
     public FilterWorker(FilterTask middlewareWorker) {
         this.middlewareWorker = middlewareWorker;
+        this.logger = Logger.getLogger(getClass().getSimpleName());
+        this.runs = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.overruns = new AtomicLong();
+        this.totalTime = new AtomicLong();
     }
 
+    /**
+     * Start the updates on an scheduler which is shared by all workers outside of express,
+     * blocking tasks run their update on it too.
+     */
     public void start() {
-        if (this.timer == null) {
+        ScheduledExecutorService scheduler = defaultScheduler();
+        start(scheduler, scheduler);
+    }
+
+    /**
+     * Start the updates.
+     *
+     * @param scheduler The scheduler which triggers the updates.
+     * @param executor  The executor for the updates of blocking tasks.
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, Executor executor) {
+        if (this.scheduler == null) {
             middlewareWorker.onStart();
-            this.timer = new Timer();
-            this.timer.scheduleAtFixedRate(this, 0, middlewareWorker.getDelay());
+            this.scheduler = scheduler;
+            this.executor = executor;
+            this.planned = System.nanoTime() + jitter();
+            schedule(planned);
         }
     }
 
-    public void stop() {
-        if (timer != null) {
+    public synchronized void stop() {
+        if (scheduler != null) {
             middlewareWorker.onStop();
-            this.timer.cancel();
-            this.timer = null;
+            this.scheduler = null;
+
+            if (next != null) {
+                next.cancel(false);
+                next = null;
+            }
         }
     }
 
     public boolean isActive() {
-        return timer != null;
+        return scheduler != null;
+    }
+
+    private static synchronized ScheduledExecutorService defaultScheduler() {
+        if (defaultScheduler == null) {
+            defaultScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "express-filter-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return defaultScheduler;
+    }
+
+    private synchronized void schedule(long at) {
+        ScheduledExecutorService scheduler = this.scheduler;
+
+        if (scheduler != null) {
+            next = scheduler.schedule(this::trigger, Math.max(0, at - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void trigger() {
+        if (!middlewareWorker.isBlocking()) {
+            run();
+            return;
+        }
+
+        try {
+            executor.execute(this::run);
+        } catch (RejectedExecutionException e) {
+            failures.incrementAndGet();
+            logger.log(Level.WARNING, "Update of " + name() + " was rejected.", e);
+            reschedule();
+        }
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+
+        try {
+            middlewareWorker.onUpdate();
+        } catch (Throwable e) {
+            failures.incrementAndGet();
+            logger.log(Level.WARNING, "Update of " + name() + " failed.", e);
+        }
+
+        long time = System.nanoTime() - start;
+        runs.incrementAndGet();
+        totalTime.addAndGet(time);
+        lastTime = time;
+        maxTime = Math.max(maxTime, time);
+
+        reschedule();
+    }
+
+    private void reschedule() {
+        long now = System.nanoTime();
+        long delay = TimeUnit.MILLISECONDS.toNanos(middlewareWorker.getDelay());
+        planned += delay;
+
+        // Skip the updates which were missed instead of running them back to back
+        boolean late = planned < now;
+        if (late) {
+            overruns.incrementAndGet();
+            planned = now + delay;
+
+            // Only the first overrun in an row is logged
+            if (!overrun) {
+                logger.log(Level.WARNING, "Update of " + name() + " took longer than its delay of " + middlewareWorker.getDelay() + "ms.");
+            }
+        }
+
+        overrun = late;
+
+        schedule(planned + jitter());
+    }
+
+    private long jitter() {
+        long max = (long) (TimeUnit.MILLISECONDS.toNanos(middlewareWorker.getDelay()) * JITTER);
+        return max > 0 ? ThreadLocalRandom.current().nextLong(max) : 0;
+    }
+
+    private String name() {
+        return middlewareWorker.getClass().getSimpleName();
+    }
+
+    /**
+     * @return The task of this worker.
+     */
+    public FilterTask getTask() {
+        return middlewareWorker;
+    }
+
+    /**
+     * @return The amount of updates which were run.
+     */
+    public long getRuns() {
+        return runs.get();
+    }
+
+    /**
+     * @return The amount of updates which threw an exception or were rejected.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return The amount of updates which took longer than the delay.
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return The run time of the last update in nanoseconds.
+     */
+    public long getLastRunTime() {
+        return lastTime;
+    }
+
+    /**
+     * @return The longest run time of an update in nanoseconds.
+     */
+    public long getMaxRunTime() {
+        return maxTime;
     }
 
-    @Override
-    public void run() {
-        middlewareWorker.onUpdate();
+    /**
+     * @return The average run time of the updates in nanoseconds.
+     */
+    public long getAverageRunTime() {
+        long runs = this.runs.get();
+        return runs == 0 ? 0 : totalTime.get() / runs;
     }
 }
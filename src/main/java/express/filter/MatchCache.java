@@ -0,0 +1,169 @@
+package express.filter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Bounded cache for resolved handler chains, keyed by route table, request method
+ * and raw path. A repeated path skips the route matching entirely. Every virtual
+ * host has its own table, so the same path of different hosts doesn't collide.
+ * The cache is cleared whenever a new table is published. If the cache is full an
+ * entry which wasn't used since the last eviction round will be removed (second chance).
+ */
+public final class MatchCache {
+
+    private static final int EVICTION_SCAN = 8;
+
+    private final ConcurrentHashMap<RouteTable, ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMatch>>> tables;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final int maxSize;
+
+    /**
+     * @param maxSize The maximal amount of cached paths.
+     */
+    public MatchCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be greater than zero: " + maxSize);
+        }
+
+        this.tables = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached chain if it was resolved with the same table.
+     *
+     * @param table  The current route table.
+     * @param method The request method.
+     * @param path   The raw request path.
+     * @return The cached chain, null if there is none.
+     */
+    RouteMatch get(RouteTable table, String method, String path) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMatch>> methods = tables.get(table);
+        ConcurrentHashMap<String, RouteMatch> paths = methods == null ? null : methods.get(method);
+        RouteMatch match = paths == null ? null : paths.get(path);
+
+        if (match == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (!match.referenced) {
+            match.referenced = true;
+        }
+
+        hits.increment();
+        return match;
+    }
+
+    /**
+     * Add an resolved chain, evicts an other entry if the cache is full.
+     * Chains which were resolved with an table that was replaced in the meantime are
+     * skipped, they would keep the old table alive.
+     *
+     * @param table  The current route table.
+     * @param method The request method.
+     * @param path   The raw request path.
+     * @param match  The resolved chain, it knows the table it was resolved with.
+     */
+    void put(RouteTable table, String method, String path, RouteMatch match) {
+        if (table != match.getTable()) {
+            return;
+        }
+
+        ConcurrentHashMap<String, RouteMatch> paths = tables
+                .computeIfAbsent(match.getTable(), t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+
+        if (!paths.containsKey(path) && size() >= maxSize) {
+            evict(paths);
+        }
+
+        paths.put(path, match);
+    }
+
+    private void evict(ConcurrentHashMap<String, RouteMatch> paths) {
+        Iterator<RouteMatch> iterator = paths.values().iterator();
+
+        for (int i = 0; i < EVICTION_SCAN && iterator.hasNext(); i++) {
+            RouteMatch match = iterator.next();
+
+            if (!match.referenced || i == EVICTION_SCAN - 1 || !iterator.hasNext()) {
+                iterator.remove();
+                return;
+            }
+
+            match.referenced = false;
+        }
+
+        // The paths of this method are empty, take one from an other method or table
+        for (ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMatch>> methods : tables.values()) {
+            for (ConcurrentHashMap<String, RouteMatch> other : methods.values()) {
+                Iterator<RouteMatch> it = other.values().iterator();
+
+                if (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all entries of an table.
+     *
+     * @param table The route table.
+     */
+    void remove(RouteTable table) {
+        tables.remove(table);
+    }
+
+    /**
+     * Remove all entries, the counters are kept.
+     */
+    public void clear() {
+        tables.clear();
+    }
+
+    /**
+     * @return The current amount of cached paths.
+     */
+    public int size() {
+        long size = 0;
+        for (ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMatch>> methods : tables.values()) {
+            for (ConcurrentHashMap<String, RouteMatch> paths : methods.values()) {
+                size += paths.mappingCount();
+            }
+        }
+
+        return (int) size;
+    }
+
+    /**
+     * @return The maximal amount of cached paths.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return How often an path was found in the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return How often an path had to be matched.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
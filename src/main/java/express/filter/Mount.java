@@ -0,0 +1,187 @@
+package express.filter;
+
+import express.ExpressException;
+import express.http.HttpRequestHandler;
+import express.http.request.PathParams;
+import express.http.request.Request;
+import express.http.response.Response;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * One layer of an router which is mounted under an root. The filter of the
+ * router are not changed, their contexts are matched relative to the root.
+ * The route table compiles the layer into an own subtree behind a single
+ * prefix check, so requests outside of the root skip the whole router.
+ * The same router can be mounted under several roots. An root can contain
+ * parameter like '/users/:id', they are matched per request and joined with
+ * the params of the routes. An mount can also be bound to an host, it's then
+ * only part of the route table of that host.
+ */
+final class Mount implements HttpRequestHandler {
+
+    private final String prefix;
+    private final RoutePattern pattern;
+    private final String host;
+    private final FilterLayer<HttpRequestHandler> layer;
+
+    /**
+     * @param root  The root path of the router.
+     * @param layer The layer of the router.
+     */
+    Mount(String root, FilterLayer<HttpRequestHandler> layer) {
+        this(root, null, layer);
+    }
+
+    /**
+     * @param root  The root path of the router.
+     * @param host  The host pattern, an name like 'example.com' or an wildcard like '*.example.com'. Null for every host.
+     * @param layer The layer of the router.
+     */
+    Mount(String root, String host, FilterLayer<HttpRequestHandler> layer) {
+        this.prefix = normalizeRoot(root);
+        this.pattern = compileRoot(prefix);
+        this.host = host == null ? null : normalizeHost(host);
+        this.layer = layer;
+    }
+
+    /**
+     * Fire the filter of the router if the request is below the root.
+     * Only used if the mount is fired without an route table.
+     *
+     * @param req The request object.
+     * @param res The response object.
+     */
+    @Override
+    public void handle(Request req, Response res) {
+        String path = req.getURI().getRawPath();
+        int[] offsets = pattern == null ? null : new int[pattern.getParamCount() * 2];
+        long[] numbers = pattern == null ? null : pattern.newNumbers();
+        int start = match(path, offsets, numbers);
+
+        if (start == -1) {
+            return;
+        }
+
+        PathParams root = pattern == null ? null : new PathParams(path, pattern.getParamNames(), offsets, numbers);
+        ParamBinding[] rootBindings = root == null ? null : ParamBinding.bind(pattern.getParamNames(), req.getApp().getParamBindings());
+
+        for (HttpRequestHandler handler : layer.getFilter()) {
+            if (res.isClosed()) {
+                return;
+            }
+
+            if (handler instanceof FilterImpl) {
+                FilterImpl filter = (FilterImpl) handler;
+                ParamBinding[] bindings = root == null || filter.isContextAll() ? null : ParamBinding.join(rootBindings, root.size(),
+                        ParamBinding.bind(filter.getPattern().getParamNames(), req.getApp().getParamBindings()), filter.getPattern().getParamCount());
+
+                FilterImpl.await(filter.handle(req, res, start, root, bindings), res);
+            } else {
+                handler.handle(req, res);
+            }
+        }
+    }
+
+    /**
+     * Check if an path is below the root.
+     *
+     * @param path    The raw request path.
+     * @param offsets Receives start and end of every parameter of the root, null if the root has none.
+     * @param numbers Receives the parsed value of int parameter, can be null.
+     * @return The index where the root ends, -1 if the path is neither the root nor starts with it followed by an '/'.
+     */
+    int match(String path, int[] offsets, long[] numbers) {
+        if (pattern != null) {
+            return pattern.matchPrefix(path, 0, offsets, numbers);
+        }
+
+        return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/') ? prefix.length() : -1;
+    }
+
+    /**
+     * Check if requests for an static path head can reach this mount.
+     *
+     * @param head The static beginning of an other context.
+     * @return True if a path can start with the head and be below the root.
+     */
+    boolean overlaps(String head) {
+        String fixed = pattern == null ? prefix : pattern.getStatics()[0];
+        return head.startsWith(fixed) || fixed.startsWith(head);
+    }
+
+    /**
+     * @return The root without trailing slash, empty for the root '/'.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return The compiled root, null if the root has no parameter.
+     */
+    RoutePattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return The normalized host pattern, null if the mount applies to every host.
+     */
+    String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The filter of the router.
+     */
+    List<HttpRequestHandler> getFilter() {
+        return layer.getFilter();
+    }
+
+    /**
+     * Validate an host pattern, only an leading '*.' is allowed as wildcard.
+     */
+    private static String normalizeHost(String host) {
+        String pattern = host.trim().toLowerCase(Locale.ROOT);
+        String name = pattern.startsWith("*.") ? pattern.substring(2) : pattern;
+
+        if (name.isEmpty() || name.indexOf('*') != -1 || name.indexOf('/') != -1 || name.indexOf(':') != -1) {
+            throw new ExpressException("Invalid host pattern: " + host);
+        }
+
+        return pattern;
+    }
+
+    /**
+     * Compile an root with parameter, an catch-all would leave nothing for the router.
+     */
+    private static RoutePattern compileRoot(String root) {
+        RoutePattern pattern = RoutePattern.compile(root);
+
+        if (pattern.isCatchAll()) {
+            throw new ExpressException("An root cannot contain an catch-all: " + root);
+        }
+
+        return pattern.getParamCount() == 0 ? null : pattern;
+    }
+
+    /**
+     * Bring the root in the form '/a/b', double and trailing slashes are removed.
+     */
+    private static String normalizeRoot(String root) {
+        StringBuilder sb = new StringBuilder();
+
+        if (root != null) {
+            for (String part : root.split("/")) {
+                if (!part.isEmpty()) {
+                    sb.append('/').append(part);
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package express.filter;
+
+import express.http.AsyncParamResolver;
+import express.http.HttpRequestHandler;
+import express.http.ParamResolver;
+import express.http.request.Request;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Everything which is registered for an url parameter name: the listener of
+ * <code>onParam</code> and an resolver which turns the value into an object.
+ * The bindings of every route are looked up once when the route table is
+ * compiled. Resolved values are memoized per request and, if an ttl is set,
+ * cached across requests by the parameter value.
+ */
+public final class ParamBinding {
+
+    /**
+     * Bindings of an route without any registered parameter.
+     */
+    static final ParamBinding[] NONE = new ParamBinding[0];
+
+    private static final int MAX_CACHED = 10_000;
+
+    private final String name;
+    private final HttpRequestHandler listener;
+    private final ParamResolver<?> resolver;
+    private final AsyncParamResolver<?> asyncResolver;
+    private final long ttl;
+    private final ConcurrentHashMap<String, Cached> cache;
+
+    private ParamBinding(String name, HttpRequestHandler listener, ParamResolver<?> resolver, AsyncParamResolver<?> asyncResolver, long ttl) {
+        this.name = name;
+        this.listener = listener;
+        this.resolver = resolver;
+        this.asyncResolver = asyncResolver;
+        this.ttl = ttl;
+        this.cache = ttl > 0 ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * @param name The parameter name.
+     * @return An binding without listener and resolver.
+     */
+    public static ParamBinding of(String name) {
+        return new ParamBinding(name, null, null, null, 0);
+    }
+
+    /**
+     * @param listener The listener which is fired for every route with this parameter.
+     * @return An copy with the new listener.
+     */
+    public ParamBinding withListener(HttpRequestHandler listener) {
+        return new ParamBinding(name, listener, resolver, asyncResolver, ttl);
+    }
+
+    /**
+     * @param resolver The resolver, replaces the previous one.
+     * @param ttl      How long an resolved value will be reused by other requests, zero to resolve it for every request.
+     * @param unit     The unit of the ttl.
+     * @return An copy with the new resolver.
+     */
+    public ParamBinding withResolver(ParamResolver<?> resolver, long ttl, TimeUnit unit) {
+        return new ParamBinding(name, listener, resolver, null, unit.toNanos(ttl));
+    }
+
+    /**
+     * @param resolver The async resolver, replaces the previous one.
+     * @param ttl      How long an resolved value will be reused by other requests, zero to resolve it for every request.
+     * @param unit     The unit of the ttl.
+     * @return An copy with the new resolver.
+     */
+    public ParamBinding withAsyncResolver(AsyncParamResolver<?> resolver, long ttl, TimeUnit unit) {
+        return new ParamBinding(name, listener, null, resolver, unit.toNanos(ttl));
+    }
+
+    /**
+     * @return The parameter name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    HttpRequestHandler getListener() {
+        return listener;
+    }
+
+    boolean hasResolver() {
+        return resolver != null || asyncResolver != null;
+    }
+
+    /**
+     * Start resolving an value, synchronous resolvers are finished when this method returns.
+     *
+     * @param req   The request object.
+     * @param value The decoded parameter value.
+     * @return The pending value.
+     */
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Object> resolve(Request req, String value) {
+        if (cache != null) {
+            Cached cached = cache.get(value);
+
+            if (cached != null) {
+                if (cached.expires - System.nanoTime() > 0) {
+                    return CompletableFuture.completedFuture(cached.value);
+                }
+
+                cache.remove(value, cached);
+            }
+        }
+
+        CompletableFuture<Object> future;
+        try {
+            future = resolver != null
+                    ? CompletableFuture.completedFuture(resolver.resolve(req, value))
+                    : (CompletableFuture<Object>) asyncResolver.resolve(req, value).toCompletableFuture();
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+
+        if (cache != null) {
+            future = future.thenApply(resolved -> {
+                store(value, resolved);
+                return resolved;
+            });
+        }
+
+        return future;
+    }
+
+    private void store(String value, Object resolved) {
+        long now = System.nanoTime();
+
+        // Drop expired values before the cache grows any further
+        if (cache.size() >= MAX_CACHED) {
+            cache.values().removeIf(cached -> cached.expires - now <= 0);
+
+            if (cache.size() >= MAX_CACHED) {
+                return;
+            }
+        }
+
+        cache.put(value, new Cached(resolved, now + ttl));
+    }
+
+    /**
+     * Find the bindings for the parameter of an route.
+     *
+     * @param names    The parameter names of the route.
+     * @param bindings The registered bindings by name.
+     * @return The binding for every parameter index, NONE if no parameter has one.
+     */
+    static ParamBinding[] bind(String[] names, Map<String, ParamBinding> bindings) {
+        if (names == null || bindings.isEmpty()) {
+            return NONE;
+        }
+
+        ParamBinding[] bound = null;
+        for (int i = 0; i < names.length; i++) {
+            ParamBinding binding = bindings.get(names[i]);
+
+            if (binding != null) {
+                if (bound == null) {
+                    bound = new ParamBinding[names.length];
+                }
+
+                bound[i] = binding;
+            }
+        }
+
+        return bound == null ? NONE : bound;
+    }
+
+    /**
+     * Join the bindings of an root with parameter and of an route below it,
+     * in the same order as the joined params.
+     *
+     * @param root      The bindings of the root.
+     * @param rootCount The amount of parameter of the root.
+     * @param bindings  The bindings of the route.
+     * @param count     The amount of parameter of the route.
+     * @return The binding for every parameter index, NONE if no parameter has one.
+     */
+    static ParamBinding[] join(ParamBinding[] root, int rootCount, ParamBinding[] bindings, int count) {
+        if (root.length == 0 && bindings.length == 0) {
+            return NONE;
+        }
+
+        ParamBinding[] joined = new ParamBinding[rootCount + count];
+        System.arraycopy(root, 0, joined, 0, root.length);
+        System.arraycopy(bindings, 0, joined, rootCount, bindings.length);
+        return joined;
+    }
+
+    private static final class Cached {
+        private final Object value;
+        private final long expires;
+
+        private Cached(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
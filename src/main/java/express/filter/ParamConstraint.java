@@ -0,0 +1,168 @@
+package express.filter;
+
+import express.ExpressException;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Constraint of an url parameter, declared in parentheses behind the name:
+ * <code>:id(int)</code>, <code>:id(uuid)</code> or any regular expression like
+ * <code>:code([A-Z]{3})</code>. Constraints are checked while the route is matched,
+ * a value which doesn't fit lets the route fall through.
+ */
+final class ParamConstraint {
+
+    /**
+     * Marks an parameter which wasn't parsed as number.
+     */
+    static final long NO_NUMBER = Long.MIN_VALUE;
+
+    private static final int INT = 0;
+    private static final int UUID = 1;
+    private static final int REGEX = 2;
+
+    private final String source;
+    private final int type;
+    private final Pattern regex;
+
+    private ParamConstraint(String source, int type, Pattern regex) {
+        this.source = source;
+        this.type = type;
+        this.regex = regex;
+    }
+
+    /**
+     * Create an constraint from the declaration.
+     *
+     * @param source The text between the parentheses.
+     * @return The constraint.
+     */
+    static ParamConstraint parse(String source) {
+        switch (source) {
+            case "int":
+                return new ParamConstraint(source, INT, null);
+            case "uuid":
+                return new ParamConstraint(source, UUID, null);
+            default:
+                try {
+                    return new ParamConstraint(source, REGEX, Pattern.compile(source));
+                } catch (PatternSyntaxException e) {
+                    throw new ExpressException("Invalid parameter constraint '" + source + "': " + e.getDescription());
+                }
+        }
+    }
+
+    /**
+     * @return True if matching values are parsed to an int.
+     */
+    boolean isNumber() {
+        return type == INT;
+    }
+
+    /**
+     * Check an value which is a region of the raw path.
+     *
+     * @param path  The raw path.
+     * @param start Start of the value.
+     * @param end   End of the value.
+     * @return True if the value fits.
+     */
+    boolean test(String path, int start, int end) {
+        switch (type) {
+            case INT:
+                return parseInt(path, start, end) != NO_NUMBER;
+            case UUID:
+                return isUUID(path, start, end);
+            default:
+                return regex.matcher(decode(path.substring(start, end))).matches();
+        }
+    }
+
+    /**
+     * Parse an region of the path as int.
+     *
+     * @param path  The raw path.
+     * @param start Start of the value.
+     * @param end   End of the value.
+     * @return The value, NO_NUMBER if it's not an int.
+     */
+    static long parseInt(String path, int start, int end) {
+        int i = start;
+        boolean negative = false;
+
+        if (i < end && (path.charAt(i) == '-' || path.charAt(i) == '+')) {
+            negative = path.charAt(i) == '-';
+            i++;
+        }
+
+        if (i == end || end - i > 10) {
+            return NO_NUMBER;
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            char c = path.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return NO_NUMBER;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NO_NUMBER : value;
+    }
+
+    private static boolean isUUID(String path, int start, int end) {
+        if (end - start != 36) {
+            return false;
+        }
+
+        for (int i = 0; i < 36; i++) {
+            char c = path.charAt(start + i);
+
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String decode(String val) {
+        if (val.indexOf('%') == -1 && val.indexOf('+') == -1) {
+            return val;
+        }
+
+        try {
+            return URLDecoder.decode(val, "UTF8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return val;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ParamConstraint && ((ParamConstraint) o).source.equals(source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,179 @@
+package express.filter;
+
+import express.http.HttpRequestHandler;
+import express.http.request.PathParams;
+import express.http.request.Request;
+import express.http.response.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * One middleware in the precompiled pipeline of an route. When the table is
+ * compiled every middleware is checked against the route, middleware which
+ * can never match the route is left out and middleware which always matches
+ * doesn't need to test the request again. Middleware of an router is
+ * compared relative to the root the router is mounted under.
+ */
+final class PipelineStep {
+
+    private static final int ALL = 0;       // Context '*' or no filter at all
+    private static final int FIXED = 1;     // Params are known at compile time
+    private static final int SAME = 2;      // Same pattern as the route, only the names may differ
+    private static final int CHECK = 3;     // Needs to be matched against the request
+
+    private final HttpRequestHandler handler;
+    private final int mode;
+    private final int start;
+    private final PathParams params;
+    private ParamBinding[] bindings;
+
+    private PipelineStep(HttpRequestHandler handler, int mode, int start, PathParams params) {
+        this.handler = handler;
+        this.mode = mode;
+        this.start = start;
+        this.params = params;
+    }
+
+    /**
+     * Collect the middleware which can match an route.
+     *
+     * @param route      The route.
+     * @param mount      The mount of the route, null if it isn't part of an mounted router.
+     * @param method     The request method the route is compiled for, null for methods without own table.
+     * @param middleware The middleware in registration order.
+     * @param bindings   The param bindings by name.
+     * @return The steps which needs to be fired before the route, null if they can only be resolved per request.
+     */
+    static PipelineStep[] compile(FilterImpl route, Mount mount, String method, List<HttpRequestHandler> middleware, Map<String, ParamBinding> bindings) {
+
+        // Where the route begins behind an root with parameter is only known per request
+        if (mount != null && mount.getPattern() != null) {
+            return null;
+        }
+
+        ArrayList<PipelineStep> steps = new ArrayList<>();
+        String prefix = mount == null ? "" : mount.getPrefix();
+
+        // The pattern of the route as if it was registered with the root
+        RoutePattern pattern = route.isContextAll() ? null : mount == null ? route.getPattern() : RoutePattern.compile(prefix + route.getPattern());
+        String head = pattern == null ? prefix : pattern.getStatics()[0];
+
+        for (HttpRequestHandler handler : middleware) {
+            if (handler instanceof Mount) {
+                Mount other = (Mount) handler;
+
+                if (other.getPrefix().equals(prefix)) {
+
+                    // Same root, the contexts can be compared relative to it
+                    for (HttpRequestHandler filter : other.getFilter()) {
+                        add(steps, filter, route.isContextAll() ? null : route.getPattern(), method, prefix.length(), bindings);
+                    }
+                } else if (other.overlaps(head)) {
+                    return null;
+                }
+
+                continue;
+            }
+
+            add(steps, handler, pattern, method, 0, bindings);
+        }
+
+        return steps.toArray(new PipelineStep[0]);
+    }
+
+    private static void add(List<PipelineStep> steps, HttpRequestHandler handler, RoutePattern routePattern, String method, int start, Map<String, ParamBinding> bindings) {
+        PipelineStep step = handler instanceof FilterImpl
+                ? compile(routePattern, method, (FilterImpl) handler, start)
+                : new PipelineStep(handler, ALL, start, null);
+
+        if (step != null) {
+            if (handler instanceof FilterImpl) {
+                step.bindings = ParamBinding.bind(((FilterImpl) handler).getPattern().getParamNames(), bindings);
+            }
+
+            steps.add(step);
+        }
+    }
+
+    private static PipelineStep compile(RoutePattern routePattern, String method, FilterImpl filter, int start) {
+
+        // The method is already known by the table
+        if (!filter.getRequestMethod().equals("*") && !filter.getRequestMethod().equals(method)) {
+            return null;
+        }
+
+        if (filter.isContextAll()) {
+            return new PipelineStep(filter, ALL, start, null);
+        } else if (routePattern == null) {
+            return new PipelineStep(filter, CHECK, start, null);
+        }
+
+        RoutePattern filterPattern = filter.getPattern();
+        String[] routeStatics = routePattern.getStatics();
+        String[] filterStatics = filterPattern.getStatics();
+
+        // Both matches exactly one path
+        if (routePattern.getParamCount() == 0 && filterPattern.getParamCount() == 0) {
+            return routeStatics[0].equals(filterStatics[0]) ? new PipelineStep(filter, FIXED, start, PathParams.EMPTY) : null;
+        }
+
+        // The route matches exactly one path, the params can be resolved now
+        if (routePattern.getParamCount() == 0) {
+            String path = routeStatics[0];
+            int[] offsets = new int[filterPattern.getParamCount() * 2];
+            long[] numbers = filterPattern.newNumbers();
+
+            if (!filterPattern.match(path, 0, offsets, numbers)) {
+                return null;
+            }
+
+            return new PipelineStep(filter, FIXED, start, new PathParams(path, filterPattern.getParamNames(), offsets, numbers));
+        }
+
+        // Same shape, the offsets of the route can be used
+        if (filterPattern.covers(routePattern)) {
+            return new PipelineStep(filter, SAME, start, null);
+        }
+
+        // The paths would already differ in the first static part
+        String routeHead = routeStatics[0];
+        String filterHead = filterStatics[0];
+        if (filterPattern.getParamCount() == 0 ? !filterHead.startsWith(routeHead) : !(routeHead.startsWith(filterHead) || filterHead.startsWith(routeHead))) {
+            return null;
+        }
+
+        return new PipelineStep(filter, CHECK, start, null);
+    }
+
+    /**
+     * Fire the middleware.
+     *
+     * @param req         The request object.
+     * @param res         The response object.
+     * @param routeParams The params of the matched route.
+     * @return The stage of an async middleware, null if it's already done.
+     */
+    CompletionStage<?> handle(Request req, Response res, PathParams routeParams) {
+        if (!(handler instanceof FilterImpl)) {
+            handler.handle(req, res);
+            return null;
+        }
+
+        FilterImpl filter = (FilterImpl) handler;
+        switch (mode) {
+            case ALL:
+                return filter.handle(req, res, null, bindings);
+            case FIXED:
+                return filter.handle(req, res, params, bindings);
+            case SAME:
+                return filter.handle(req, res, routeParams.withNames(filter.getPattern().getParamNames()), bindings);
+            default:
+                return filter.handle(req, res, start, bindings);
+        }
+    }
+}
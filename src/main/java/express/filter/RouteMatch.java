@@ -0,0 +1,307 @@
+package express.filter;
+
+import express.Express;
+import express.http.HttpRequestHandler;
+import express.http.Priority;
+import express.http.RouteOptions;
+import express.http.request.PathParams;
+import express.http.request.Request;
+import express.http.response.Response;
+import express.server.Bulkhead;
+import express.utils.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * The resolved handler chain for an request method and path. It only depends
+ * on the route table, the method and the raw path, so it can be reused for
+ * every request to the same path as long as the table doesn't change.
+ */
+final class RouteMatch {
+
+    private final RouteTable table;
+    private final PipelineStep[] pipeline;
+    private final PathParams params;
+    private final List<RouteTrie.Match> middleware;
+    private final List<RouteTrie.Match> routes;
+    private final String allow;
+    private final Priority priority;
+    private final Bulkhead bulkhead;
+    private final String executor;
+    private final long timeout;
+
+    volatile boolean referenced;
+
+    /**
+     * Chain of an single route with its precompiled middleware.
+     */
+    RouteMatch(RouteTable table, PipelineStep[] pipeline, List<RouteTrie.Match> routes) {
+        this.table = table;
+        this.pipeline = pipeline;
+        this.params = routes.get(0).getParams();
+        this.middleware = null;
+        this.routes = routes;
+        this.allow = null;
+        this.priority = priorityOf(routes);
+        this.bulkhead = bulkheadOf(routes);
+        this.executor = executorOf(routes);
+        this.timeout = timeoutOf(routes);
+    }
+
+    /**
+     * Chain with the matching middleware of every layer.
+     */
+    RouteMatch(RouteTable table, List<List<RouteTrie.Match>> middleware, List<RouteTrie.Match> routes, String allow) {
+        this.table = table;
+        this.pipeline = null;
+        this.params = null;
+        this.middleware = new ArrayList<>();
+        this.routes = routes;
+        this.allow = allow;
+        this.priority = priorityOf(routes);
+        this.bulkhead = bulkheadOf(routes);
+        this.executor = executorOf(routes);
+        this.timeout = timeoutOf(routes);
+
+        // The layers are fired one after an other, so they can be joined
+        for (List<RouteTrie.Match> matches : middleware) {
+            this.middleware.addAll(matches);
+        }
+    }
+
+    /**
+     * The highest priority of the matching routes, NORMAL if no route has one.
+     */
+    private static Priority priorityOf(List<RouteTrie.Match> routes) {
+        Priority priority = Priority.NORMAL;
+
+        for (RouteTrie.Match match : routes) {
+            if (match.getHandler() instanceof FilterImpl) {
+                RouteOptions options = ((FilterImpl) match.getHandler()).getOptions();
+
+                if (options != null && options.getPriority().compareTo(priority) > 0) {
+                    priority = options.getPriority();
+                }
+            }
+        }
+
+        return priority;
+    }
+
+    /**
+     * The bulkhead of the first matching route which has one.
+     */
+    private static Bulkhead bulkheadOf(List<RouteTrie.Match> routes) {
+        for (RouteTrie.Match match : routes) {
+            if (match.getHandler() instanceof FilterImpl) {
+                RouteOptions options = ((FilterImpl) match.getHandler()).getOptions();
+
+                if (options != null && options.getBulkhead() != null) {
+                    return options.getBulkhead();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The executor of the first matching route which names one,
+     * server side events get their own executor by default.
+     */
+    private static String executorOf(List<RouteTrie.Match> routes) {
+        String executor = null;
+
+        for (RouteTrie.Match match : routes) {
+            if (match.getHandler() instanceof FilterImpl) {
+                FilterImpl filter = (FilterImpl) match.getHandler();
+                RouteOptions options = filter.getOptions();
+
+                if (options != null && options.getExecutor() != null) {
+                    return options.getExecutor();
+                }
+
+                if (executor == null && filter.isSSE()) {
+                    executor = Express.SSE_EXECUTOR;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * The timeout of the first matching route which has one.
+     */
+    private static long timeoutOf(List<RouteTrie.Match> routes) {
+        for (RouteTrie.Match match : routes) {
+            if (match.getHandler() instanceof FilterImpl) {
+                RouteOptions options = ((FilterImpl) match.getHandler()).getOptions();
+
+                if (options != null && options.getTimeout() > 0) {
+                    return options.getTimeout();
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return The table which was used to resolve this chain.
+     */
+    RouteTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return The methods which have a route for this path if the request method has none, otherwise null.
+     */
+    String getAllow() {
+        return allow;
+    }
+
+    /**
+     * @return The priority of the matching routes.
+     */
+    Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The bulkhead of the matching routes, null if there is none.
+     */
+    Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * @return The name of the executor of the matching routes, null if they have none.
+     */
+    String getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return The timeout of the matching routes in milliseconds, zero if they have none.
+     */
+    long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Fire first the middleware and then the routes until the response is closed.
+     * If an async handler is still running, the chain is suspended and continued
+     * on the executor when it completes, the calling thread returns immediately.
+     *
+     * @param request  The request object.
+     * @param response The response object.
+     * @param executor The executor which continues an suspended chain.
+     * @param done     Called when the chain is finished.
+     */
+    void handle(Request request, Response response, Executor executor, Runnable done) {
+        run(request, response, executor, done, 0);
+    }
+
+    private void run(Request request, Response response, Executor executor, Runnable done, int position) {
+        int steps = pipeline != null ? pipeline.length : middleware.size();
+        int size = steps + routes.size();
+
+        for (int i = position; i < size; i++) {
+            if (response.isClosed()) {
+                break;
+            }
+
+            if (request.isCancelled()) {
+                cancelled(request, response);
+                break;
+            }
+
+            CompletionStage<?> stage = i < steps && pipeline != null
+                    ? pipeline[i].handle(request, response, params)
+                    : fire(i < steps ? middleware.get(i) : routes.get(i - steps), request, response);
+
+            if (stage == null) {
+                continue;
+            }
+
+            CompletableFuture<?> future = stage.toCompletableFuture();
+            if (!future.isDone()) {
+                int next = i + 1;
+
+                // Async work which was started for the request is stopped with it
+                request.onCancel(() -> future.cancel(true));
+
+                future.whenComplete((result, error) -> {
+                    if (error != null) {
+                        if (request.isCancelled()) {
+                            cancelled(request, response);
+                        } else {
+                            FilterImpl.fail(error, response);
+                        }
+
+                        done.run();
+                    } else {
+                        executor.execute(() -> {
+                            try {
+                                run(request, response, executor, done, next);
+                            } catch (RuntimeException e) {
+                                if (request.isCancelled()) {
+                                    cancelled(request, response);
+                                } else {
+                                    FilterImpl.fail(e, response);
+                                }
+
+                                done.run();
+                            }
+                        });
+                    }
+                });
+
+                return;
+            }
+
+            if (future.isCompletedExceptionally()) {
+                FilterImpl.await(future, response);
+                break;
+            }
+        }
+
+        if (request.isCancelled()) {
+            cancelled(request, response);
+        }
+
+        done.run();
+    }
+
+    /**
+     * Answer an request which was cancelled, '504 Gateway Timeout' if the deadline passed.
+     */
+    static void cancelled(Request request, Response response) {
+        if (!response.isClosed()) {
+            response.sendStatus(request.isExpired() ? Status._504 : Status._503);
+        }
+    }
+
+    /**
+     * Fire the handler of an match.
+     *
+     * @return The stage of an async handler, null if the handler is already done.
+     */
+    private static CompletionStage<?> fire(RouteTrie.Match match, Request request, Response response) {
+        HttpRequestHandler handler = match.getHandler();
+
+        if (handler instanceof FilterImpl) {
+            return ((FilterImpl) handler).handle(request, response, match.getParams(), match.getBindings());
+        }
+
+        handler.handle(request, response);
+        return null;
+    }
+}
@@ -0,0 +1,309 @@
+package express.filter;
+
+import express.ExpressException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Precompiled form of an filter context. The context is split once into
+ * the static parts and the ':param' segments between them, matching an
+ * path only compares regions of the raw path and records where each
+ * parameter starts and ends. A parameter can have an constraint in
+ * parentheses, e.g. ':id(int)', and the last segment can be an catch-all
+ * like '*path' which matches the rest of the path.
+ */
+final class RoutePattern {
+
+    private final String context;
+    private final String[] statics;
+    private final String[] names;
+    private final ParamConstraint[] constraints;
+    private final boolean catchAll;
+
+    private RoutePattern(String context, String[] statics, String[] names, ParamConstraint[] constraints, boolean catchAll) {
+        this.context = context;
+        this.statics = statics;
+        this.names = names;
+        this.constraints = constraints;
+        this.catchAll = catchAll;
+    }
+
+    /**
+     * Split an context into static parts and parameter.
+     * A parameter starts with ':' and ends before the next '/'.
+     *
+     * @param context The normalized context.
+     * @return The compiled pattern.
+     */
+    static RoutePattern compile(String context) {
+        ArrayList<String> statics = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<ParamConstraint> constraints = new ArrayList<>();
+        boolean catchAll = false;
+
+        int start = 0;
+        int i = 0;
+        while (i < context.length()) {
+            char c = context.charAt(i);
+
+            if (c == ':') {
+                int end = i + 1;
+                while (end < context.length() && context.charAt(end) != '/' && context.charAt(end) != '(') {
+                    end++;
+                }
+
+                statics.add(context.substring(start, i));
+                names.add(context.substring(i + 1, end));
+
+                // Optional constraint in parentheses
+                if (end < context.length() && context.charAt(end) == '(') {
+                    int close = closingParenthesis(context, end);
+                    if (close == -1) {
+                        throw new ExpressException("Unclosed parameter constraint in context: " + context);
+                    }
+
+                    constraints.add(ParamConstraint.parse(context.substring(end + 1, close)));
+                    end = close + 1;
+
+                    if (end < context.length() && context.charAt(end) != '/') {
+                        throw new ExpressException("A parameter constraint must end the segment: " + context);
+                    }
+                } else {
+                    constraints.add(null);
+                }
+
+                start = i = end;
+            } else if (c == '*' && i > 0 && context.charAt(i - 1) == '/') {
+                if (context.indexOf('/', i) != -1) {
+                    throw new ExpressException("A catch-all segment must be the last segment: " + context);
+                }
+
+                String name = context.substring(i + 1);
+                statics.add(context.substring(start, i));
+                names.add(name.isEmpty() ? "*" : name);
+                constraints.add(null);
+                catchAll = true;
+                start = i = context.length();
+            } else {
+                i++;
+            }
+        }
+
+        statics.add(context.substring(start));
+        return new RoutePattern(context,
+                statics.toArray(new String[0]),
+                names.toArray(new String[0]),
+                constraints.toArray(new ParamConstraint[0]),
+                catchAll);
+    }
+
+    private static int closingParenthesis(String context, int open) {
+        int depth = 0;
+
+        for (int i = open; i < context.length(); i++) {
+            char c = context.charAt(i);
+
+            if (c == '\\') {
+                i++;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Match an raw path against this pattern.
+     *
+     * @param path    The raw request path.
+     * @param start   The index where the context begins, greater zero if the filter is mounted under an root.
+     * @param offsets Receives start and end of every parameter, needs two slots per parameter.
+     *                Can be null if the pattern has no parameter.
+     * @param numbers Receives the parsed value of int parameter, can be null.
+     * @return True if the path matches.
+     */
+    boolean match(String path, int start, int[] offsets, long[] numbers) {
+        int pos = matchParams(path, start, offsets, numbers);
+        if (pos == -1) {
+            return false;
+        }
+
+        String tail = statics[names.length];
+        if (tail.isEmpty() && names.length > 0 && pos == path.length() - 1) {
+
+            // A trailing slash behind a trailing parameter is tolerated
+            return true;
+        }
+
+        return path.length() - pos == tail.length() && path.startsWith(tail, pos);
+    }
+
+    /**
+     * Match the beginning of an raw path against this pattern, used for the root of an mounted router.
+     *
+     * @param path    The raw request path.
+     * @param start   The index where the pattern begins.
+     * @param offsets Receives start and end of every parameter, needs two slots per parameter.
+     * @param numbers Receives the parsed value of int parameter, can be null.
+     * @return The index where the match ends, -1 if the path doesn't start with this pattern followed by an '/' or its end.
+     */
+    int matchPrefix(String path, int start, int[] offsets, long[] numbers) {
+        int pos = matchParams(path, start, offsets, numbers);
+        String tail = statics[names.length];
+
+        if (pos == -1 || !path.startsWith(tail, pos)) {
+            return -1;
+        }
+
+        int end = pos + tail.length();
+        return end == path.length() || path.charAt(end) == '/' ? end : -1;
+    }
+
+    /**
+     * Match the static parts and parameter up to the last static part.
+     *
+     * @return The index behind the last parameter, -1 if the path doesn't match.
+     */
+    private int matchParams(String path, int start, int[] offsets, long[] numbers) {
+        int pos = start;
+
+        for (int i = 0; i < names.length; i++) {
+            String part = statics[i];
+
+            if (!path.startsWith(part, pos)) {
+                return -1;
+            }
+
+            pos += part.length();
+
+            // The catch-all takes the rest of the path
+            if (catchAll && i == names.length - 1) {
+                offsets[i * 2] = pos;
+                offsets[i * 2 + 1] = path.length();
+                return path.length();
+            }
+
+            int end = path.indexOf('/', pos);
+            end = end == -1 ? path.length() : end;
+
+            // Empty parameter values are not allowed
+            if (end == pos) {
+                return -1;
+            }
+
+            ParamConstraint constraint = constraints[i];
+            if (constraint != null) {
+                if (constraint.isNumber()) {
+                    long number = ParamConstraint.parseInt(path, pos, end);
+
+                    if (number == ParamConstraint.NO_NUMBER) {
+                        return -1;
+                    } else if (numbers != null) {
+                        numbers[i] = number;
+                    }
+                } else if (!constraint.test(path, pos, end)) {
+                    return -1;
+                }
+            }
+
+            offsets[i * 2] = pos;
+            offsets[i * 2 + 1] = end;
+            pos = end;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Check if this pattern matches every path of an other pattern with the same parameter positions.
+     *
+     * @param other The other pattern.
+     * @return True if the offsets of the other pattern can be used for this one, the names may differ.
+     */
+    boolean covers(RoutePattern other) {
+        if (catchAll != other.catchAll || !Arrays.equals(statics, other.statics)) {
+            return false;
+        }
+
+        // An constraint of this pattern needs to be checked by the other one as well
+        for (int i = 0; i < constraints.length; i++) {
+            if (constraints[i] != null && !constraints[i].equals(other.constraints[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The static parts, there is always one more than parameter.
+     */
+    String[] getStatics() {
+        return statics;
+    }
+
+    /**
+     * @return The parameter names in the order they appear.
+     */
+    String[] getParamNames() {
+        return names;
+    }
+
+    /**
+     * @return The constraint of each parameter, null for parameter without one.
+     */
+    ParamConstraint[] getConstraints() {
+        return constraints;
+    }
+
+    /**
+     * @return The amount of parameter.
+     */
+    int getParamCount() {
+        return names.length;
+    }
+
+    /**
+     * @return True if the last parameter is an catch-all.
+     */
+    boolean isCatchAll() {
+        return catchAll;
+    }
+
+    /**
+     * @return True if one of the parameter is parsed as int.
+     */
+    boolean hasNumbers() {
+        for (ParamConstraint constraint : constraints) {
+            if (constraint != null && constraint.isNumber()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return An array for the parsed int parameter, null if the pattern has none.
+     */
+    long[] newNumbers() {
+        if (!hasNumbers()) {
+            return null;
+        }
+
+        long[] numbers = new long[names.length];
+        Arrays.fill(numbers, ParamConstraint.NO_NUMBER);
+        return numbers;
+    }
+
+    @Override
+    public String toString() {
+        return context;
+    }
+}
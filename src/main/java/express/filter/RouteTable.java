@@ -0,0 +1,364 @@
+package express.filter;
+
+import express.http.HttpRequestHandler;
+import express.http.RequestMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Immutable snapshot of all FilterLayer. Every layer has one trie per request
+ * method, indexed by the RequestMethod, filter for all methods ('*') are merged
+ * into each of them. The routes of the last layer additionally know which
+ * middleware of the previous layers can match them. A table is never changed
+ * after it was compiled, so it can be read from any thread without locking.
+ * Routers which are mounted under an root are compiled into own tries,
+ * every virtual host gets an complete table of its own.
+ */
+public final class RouteTable {
+
+    private static final RequestMethod[] METHODS = RequestMethod.values();
+
+    private final Layer[] layers;
+    private final Map<String, ParamBinding> bindings;
+
+    // Tables of the virtual hosts, wildcards are keyed by the suffix like '.example.com'
+    private final HashMap<String, RouteTable> hosts;
+    private final HashMap<String, RouteTable> wildcards;
+
+    private RouteTable(int layers, Map<String, ParamBinding> bindings) {
+        this.layers = new Layer[layers];
+        this.bindings = bindings;
+        this.hosts = new HashMap<>();
+        this.wildcards = new HashMap<>();
+    }
+
+    /**
+     * Compile the current content of the layers into an new table.
+     * Every host which has an own router gets an own table.
+     *
+     * @param layers   The FilterLayer, the content will be copied.
+     * @param bindings The param bindings by name, the routes will know their bindings.
+     * @return The compiled table.
+     */
+    static RouteTable compile(FilterLayer<?>[] layers, Map<String, ParamBinding> bindings) {
+        bindings = new HashMap<>(bindings);
+        RouteTable table = compile(layers, null, bindings);
+
+        LinkedHashSet<String> patterns = new LinkedHashSet<>();
+        for (FilterLayer<?> layer : layers) {
+            for (Object handler : layer.getFilter()) {
+                if (handler instanceof Mount && ((Mount) handler).getHost() != null) {
+                    patterns.add(((Mount) handler).getHost());
+                }
+            }
+        }
+
+        for (String pattern : patterns) {
+            RouteTable hostTable = compile(layers, pattern, bindings);
+
+            if (pattern.startsWith("*.")) {
+                table.wildcards.put(pattern.substring(1), hostTable);
+            } else {
+                table.hosts.put(pattern, hostTable);
+            }
+        }
+
+        return table;
+    }
+
+    private static RouteTable compile(FilterLayer<?>[] layers, String host, Map<String, ParamBinding> bindings) {
+        RouteTable table = new RouteTable(layers.length, bindings);
+        ArrayList<HttpRequestHandler> middleware = new ArrayList<>();
+
+        // Methods which are not part of RequestMethod get their own tries
+        LinkedHashSet<String> custom = new LinkedHashSet<>();
+        for (FilterLayer<?> layer : layers) {
+            collectCustomMethods(layer.getFilter(), custom);
+        }
+
+        for (int i = 0; i < layers.length; i++) {
+            List<HttpRequestHandler> filter = new ArrayList<>(layers[i].getFilter());
+
+            // Routers of other hosts are not part of this table
+            filter.removeIf(handler -> handler instanceof Mount && ((Mount) handler).getHost() != null && !((Mount) handler).getHost().equals(host));
+
+            Layer layer = new Layer(custom, -1);
+            boolean routes = i == layers.length - 1 && i > 0;
+
+            int order = 0;
+            for (HttpRequestHandler handler : filter) {
+                if (handler instanceof Mount) {
+                    Mount mount = (Mount) handler;
+
+                    // The router gets its own tries, the contexts stay relative to the root
+                    Layer sub = new Layer(custom, order);
+                    int subOrder = 0;
+                    for (HttpRequestHandler subHandler : mount.getFilter()) {
+                        table.insert(sub, subOrder++, subHandler, mount, routes, middleware);
+                    }
+
+                    ParamBinding[] rootBindings = mount.getPattern() == null ? ParamBinding.NONE : ParamBinding.bind(mount.getPattern().getParamNames(), bindings);
+                    for (int m = 0; m < layer.methods.length; m++) {
+                        layer.methods[m].mount(mount, sub.methods[m], rootBindings);
+                    }
+
+                    for (Map.Entry<String, RouteTrie> entry : layer.custom.entrySet()) {
+                        entry.getValue().mount(mount, sub.custom.get(entry.getKey()), rootBindings);
+                    }
+
+                    layer.any.mount(mount, sub.any, rootBindings);
+                } else {
+                    table.insert(layer, order, handler, null, routes, middleware);
+                }
+
+                order++;
+            }
+
+            middleware.addAll(filter);
+            table.layers[i] = layer;
+        }
+
+        return table;
+    }
+
+    private static void collectCustomMethods(List<? extends HttpRequestHandler> filter, Set<String> custom) {
+        for (HttpRequestHandler handler : filter) {
+            if (handler instanceof Mount) {
+                collectCustomMethods(((Mount) handler).getFilter(), custom);
+                continue;
+            }
+
+            String method = getRequestMethod(handler);
+            if (RequestMethod.of(method) == null) {
+                custom.add(method);
+            }
+        }
+    }
+
+    private void insert(Layer layer, int order, HttpRequestHandler handler, Mount mount, boolean routes, List<HttpRequestHandler> middleware) {
+        String method = getRequestMethod(handler);
+        RequestMethod requestMethod = RequestMethod.of(method);
+
+        if (requestMethod == RequestMethod.ALL) {
+            for (int m = 0; m < layer.methods.length; m++) {
+                insert(layer.methods[m], METHODS[m].getMethod(), order, handler, mount, routes, middleware);
+            }
+
+            for (Map.Entry<String, RouteTrie> entry : layer.custom.entrySet()) {
+                insert(entry.getValue(), entry.getKey(), order, handler, mount, routes, middleware);
+            }
+
+            insert(layer.any, null, order, handler, mount, routes, middleware);
+        } else if (requestMethod != null) {
+            insert(layer.methods[requestMethod.ordinal()], method, order, handler, mount, routes, middleware);
+        } else {
+            insert(layer.custom.get(method), method, order, handler, mount, routes, middleware);
+        }
+    }
+
+    private void insert(RouteTrie trie, String method, int order, HttpRequestHandler handler, Mount mount, boolean routes, List<HttpRequestHandler> middleware) {
+        RouteTrie.Entry entry = trie.insert(order, handler);
+
+        if (handler instanceof FilterImpl) {
+            entry.setBindings(ParamBinding.bind(((FilterImpl) handler).getPattern().getParamNames(), bindings));
+        }
+
+        // Every route gets the middleware of the previous layers which can match it
+        if (routes && handler instanceof FilterImpl) {
+            entry.setPipeline(PipelineStep.compile((FilterImpl) handler, mount, method, middleware, bindings));
+        }
+    }
+
+    private static String getRequestMethod(HttpRequestHandler handler) {
+        return handler instanceof FilterImpl ? ((FilterImpl) handler).getRequestMethod() : "*";
+    }
+
+    /**
+     * Returns the table for the value of an 'Host' header.
+     * Exact names are preferred, then the longest matching wildcard.
+     *
+     * @param host The host header, can contain an port.
+     * @return The table of the host, this table if the host has no own routes.
+     */
+    RouteTable forHost(String host) {
+        if (host == null || (hosts.isEmpty() && wildcards.isEmpty())) {
+            return this;
+        }
+
+        String name = hostName(host);
+        RouteTable table = hosts.get(name);
+        if (table != null) {
+            return table;
+        }
+
+        for (int dot = name.indexOf('.'); dot != -1; dot = name.indexOf('.', dot + 1)) {
+            table = wildcards.get(name.substring(dot));
+
+            if (table != null) {
+                return table;
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Remove the port and an trailing dot from an host header.
+     */
+    private static String hostName(String host) {
+        int end = host.length();
+
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            end = close == -1 ? end : close + 1;
+        } else {
+            int colon = host.lastIndexOf(':');
+            end = colon == -1 ? end : colon;
+        }
+
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+
+        return host.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The amount of layers in this table.
+     */
+    int size() {
+        return layers.length;
+    }
+
+    /**
+     * @return The index of the layer which contains the routes.
+     */
+    int routeLayer() {
+        return layers.length - 1;
+    }
+
+    /**
+     * Resolve the handler chain for an request.
+     *
+     * @param method The request method.
+     * @param path   The raw request path.
+     * @return The resolved chain.
+     */
+    @SuppressWarnings("unchecked")
+    RouteMatch resolve(String method, String path) {
+        List<RouteTrie.Match> routes = new ArrayList<>();
+        int routeLayer = routeLayer();
+        lookup(routeLayer, method, path, routes);
+
+        // An single route brings its own middleware, otherwise all middleware layers are searched
+        PipelineStep[] pipeline = routes.size() == 1 ? routes.get(0).getPipeline() : null;
+        if (pipeline != null) {
+            return new RouteMatch(this, pipeline, routes);
+        }
+
+        List<List<RouteTrie.Match>> middleware = new ArrayList<>(routeLayer);
+        for (int layer = 0; layer < routeLayer; layer++) {
+            List<RouteTrie.Match> matches = new ArrayList<>();
+            lookup(layer, method, path, matches);
+            middleware.add(matches);
+        }
+
+        return new RouteMatch(this, middleware, routes, routes.isEmpty() ? allowedMethods(path) : null);
+    }
+
+    /**
+     * Collect all handler of an layer which are matching the request.
+     *
+     * @param layer   The layer.
+     * @param method  The request method.
+     * @param path    The raw request path.
+     * @param matches The list where the matches will be appended, sorted by registration order.
+     */
+    void lookup(int layer, String method, String path, List<RouteTrie.Match> matches) {
+        layers[layer].get(method).lookup(path, matches);
+
+        // Overlapping routes are fired in the order they were registered
+        if (matches.size() > 1) {
+            Collections.sort(matches);
+        }
+    }
+
+    /**
+     * Find the methods which have a route for the path.
+     *
+     * @param path The raw request path.
+     * @return The value for an 'Allow' header, null if no method has a route for it.
+     */
+    private String allowedMethods(String path) {
+        Layer layer = layers[routeLayer()];
+        StringJoiner allow = new StringJoiner(", ");
+        List<RouteTrie.Match> matches = new ArrayList<>();
+
+        for (int m = 0; m < layer.methods.length; m++) {
+            matches.clear();
+            layer.methods[m].lookup(path, matches);
+
+            if (!matches.isEmpty()) {
+                allow.add(METHODS[m].getMethod());
+            }
+        }
+
+        for (Map.Entry<String, RouteTrie> entry : layer.custom.entrySet()) {
+            matches.clear();
+            entry.getValue().lookup(path, matches);
+
+            if (!matches.isEmpty()) {
+                allow.add(entry.getKey());
+            }
+        }
+
+        return allow.length() == 0 ? null : allow.toString();
+    }
+
+    /**
+     * The tries of one layer.
+     */
+    private static final class Layer {
+
+        // Indexed by the ordinal of the basic request methods, without ALL
+        private final RouteTrie[] methods;
+        private final LinkedHashMap<String, RouteTrie> custom;
+        private final RouteTrie any;
+
+        private Layer(Iterable<String> customMethods, int mount) {
+            this.methods = new RouteTrie[METHODS.length - 1];
+            this.custom = new LinkedHashMap<>();
+            this.any = new RouteTrie(mount);
+
+            for (int i = 0; i < methods.length; i++) {
+                methods[i] = new RouteTrie(mount);
+            }
+
+            for (String method : customMethods) {
+                custom.put(method, new RouteTrie(mount));
+            }
+        }
+
+        private RouteTrie get(String method) {
+            RequestMethod requestMethod = RequestMethod.of(method);
+
+            if (requestMethod != null && requestMethod != RequestMethod.ALL) {
+                return methods[requestMethod.ordinal()];
+            }
+
+            RouteTrie trie = custom.get(method);
+            return trie != null ? trie : any;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package express.filter;
+
+import express.http.HttpRequestHandler;
+import express.http.request.PathParams;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Radix trie over the contexts of one request method. Static parts of a
+ * context are stored as compressed prefixes, ':param' segments as one
+ * parameter child per constraint, an '*name' catch-all as an extra child
+ * and the '*' context in an extra list which matches every path. A lookup
+ * walks the raw request path once, so its cost depends on the path length
+ * and not on the amount of registered routes.
+ * Parameter are only recorded as offsets into the raw path. Mounted routers
+ * are own tries which are only searched if the path starts with their root,
+ * the params of an root with parameter are joined into every match below it.
+ */
+final class RouteTrie {
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+    private static final char[] NO_INDICES = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final Branch[] NO_BRANCHES = new Branch[0];
+
+    private final Node root = new Node("");
+    private final int mount;
+    private Entry[] matchAll = NO_ENTRIES;
+    private Branch[] branches = NO_BRANCHES;
+
+    RouteTrie() {
+        this(-1);
+    }
+
+    /**
+     * @param mount The registration index of the mount in the parent layer, -1 if the trie isn't mounted.
+     */
+    RouteTrie(int mount) {
+        this.mount = mount;
+    }
+
+    /**
+     * Add an handler to the trie.
+     *
+     * @param order   The registration index, used to sort overlapping matches.
+     * @param handler The handler, FilterImpl contexts will be indexed, everything else matches every path.
+     * @return The entry of the handler.
+     */
+    Entry insert(int order, HttpRequestHandler handler) {
+        if (!(handler instanceof FilterImpl) || ((FilterImpl) handler).isContextAll()) {
+            Entry entry = new Entry(order, mount, handler, null, null);
+            matchAll = append(matchAll, entry);
+            return entry;
+        }
+
+        FilterImpl filter = (FilterImpl) handler;
+        RoutePattern pattern = filter.getPattern();
+        String[] statics = pattern.getStatics();
+        ParamConstraint[] constraints = pattern.getConstraints();
+        Entry entry = new Entry(order, mount, filter, pattern.getParamNames(), pattern.hasNumbers() ? constraints : null);
+
+        Node node = root;
+        for (int i = 0; i < statics.length; i++) {
+            node = insert(node, statics[i], 0);
+
+            // Parameter segment, the name is kept by the entry
+            if (pattern.isCatchAll() && i == pattern.getParamCount() - 1) {
+                if (node.catchAll == null) {
+                    node.catchAll = new Node("");
+                }
+
+                node = node.catchAll;
+                break;
+            } else if (i < pattern.getParamCount()) {
+                node = node.param(constraints[i]);
+            }
+        }
+
+        node.entries = append(node.entries, entry);
+        return entry;
+    }
+
+    /**
+     * Add the trie of an mounted router.
+     *
+     * @param mount    The mount with the root of the router.
+     * @param trie     The trie of the router, the contexts are relative to the root.
+     * @param bindings The param bindings of the root.
+     */
+    void mount(Mount mount, RouteTrie trie, ParamBinding[] bindings) {
+        branches = Arrays.copyOf(branches, branches.length + 1);
+        branches[branches.length - 1] = new Branch(mount, trie, bindings);
+    }
+
+    /**
+     * Collect all handler which are matching the path.
+     *
+     * @param path    The raw request path.
+     * @param matches The list where the matches will be appended.
+     */
+    void lookup(String path, List<Match> matches) {
+        lookup(path, 0, matches);
+    }
+
+    private void lookup(String path, int start, List<Match> matches) {
+        for (Entry entry : matchAll) {
+            matches.add(entry.match);
+        }
+
+        if (path == null) {
+            return;
+        }
+
+        collect(root, path, start, null, null, 0, matches);
+
+        // An router is skipped with one comparison if the path is outside of its root
+        for (Branch branch : branches) {
+            RoutePattern pattern = branch.mount.getPattern();
+
+            if (pattern == null) {
+                int end = branch.mount.match(path, null, null);
+
+                if (end != -1) {
+                    branch.trie.lookup(path, end, matches);
+                }
+
+                continue;
+            }
+
+            int[] offsets = new int[pattern.getParamCount() * 2];
+            long[] numbers = pattern.newNumbers();
+            int end = branch.mount.match(path, offsets, numbers);
+
+            if (end != -1) {
+                int from = matches.size();
+                branch.trie.lookup(path, end, matches);
+
+                PathParams root = new PathParams(path, pattern.getParamNames(), offsets, numbers);
+                for (int i = from; i < matches.size(); i++) {
+                    matches.set(i, matches.get(i).withRoot(root, branch.bindings));
+                }
+            }
+        }
+    }
+
+    private Node insert(Node node, String part, int pos) {
+        if (pos == part.length()) {
+            return node;
+        }
+
+        Node child = node.child(part.charAt(pos));
+        if (child == null) {
+            child = new Node(part.substring(pos));
+            node.addChild(child);
+            return child;
+        }
+
+        // Split the child if the prefix only partly matches
+        String prefix = child.prefix;
+        int common = 0;
+        while (common < prefix.length() && pos + common < part.length() && prefix.charAt(common) == part.charAt(pos + common)) {
+            common++;
+        }
+
+        if (common < prefix.length()) {
+            child.split(common);
+        }
+
+        return insert(child, part, pos + common);
+    }
+
+    private void collect(Node node, String path, int pos, int[] offsets, long[] numbers, int depth, List<Match> matches) {
+
+        // The catch-all takes the rest of the path, even if it's empty
+        if (node.catchAll != null) {
+            offsets = record(offsets, depth, pos, path.length());
+            addMatches(node.catchAll, path, offsets, numbers, matches);
+        }
+
+        if (pos == path.length()) {
+            addMatches(node, path, offsets, numbers, matches);
+            return;
+        }
+
+        Node child = node.child(path.charAt(pos));
+        if (child != null && path.startsWith(child.prefix, pos)) {
+            collect(child, path, pos + child.prefix.length(), offsets, numbers, depth, matches);
+        }
+
+        if (node.params.length == 0) {
+            return;
+        }
+
+        int end = segmentEnd(path, pos);
+        if (end == pos) {
+            return;
+        }
+
+        for (Node param : node.params) {
+            ParamConstraint constraint = param.constraint;
+
+            if (constraint != null) {
+                if (constraint.isNumber()) {
+                    long number = ParamConstraint.parseInt(path, pos, end);
+                    if (number == ParamConstraint.NO_NUMBER) {
+                        continue;
+                    }
+
+                    if (numbers == null) {
+                        numbers = new long[Math.max(8, depth + 1)];
+                    } else if (depth >= numbers.length) {
+                        numbers = Arrays.copyOf(numbers, Math.max(numbers.length * 2, depth + 1));
+                    }
+
+                    numbers[depth] = number;
+                } else if (!constraint.test(path, pos, end)) {
+                    continue;
+                }
+            }
+
+            offsets = record(offsets, depth, pos, end);
+            collect(param, path, end, offsets, numbers, depth + 1, matches);
+
+            // A trailing slash behind a trailing parameter is tolerated
+            if (end == path.length() - 1) {
+                addMatches(param, path, offsets, numbers, matches);
+            }
+        }
+    }
+
+    private static int[] record(int[] offsets, int depth, int start, int end) {
+        if (offsets == null) {
+            offsets = new int[Math.max(8, depth * 2 + 2)];
+        } else if (depth * 2 + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, depth * 2 + 2));
+        }
+
+        offsets[depth * 2] = start;
+        offsets[depth * 2 + 1] = end;
+        return offsets;
+    }
+
+    private void addMatches(Node node, String path, int[] offsets, long[] numbers, List<Match> matches) {
+        for (Entry entry : node.entries) {
+            int count = entry.paramNames.length;
+
+            // Routes without parameter share one immutable match
+            if (count == 0) {
+                matches.add(entry.match);
+                continue;
+            }
+
+            matches.add(new Match(entry, new PathParams(path, entry.paramNames, Arrays.copyOf(offsets, count * 2), entry.numbers(numbers))));
+        }
+    }
+
+    private static int segmentEnd(String s, int pos) {
+        int end = s.indexOf('/', pos);
+        return end == -1 ? s.length() : end;
+    }
+
+    private static Entry[] append(Entry[] entries, Entry entry) {
+        Entry[] copy = Arrays.copyOf(entries, entries.length + 1);
+        copy[entries.length] = entry;
+        return copy;
+    }
+
+    /**
+     * Node with an static prefix, static children are indexed by their first char.
+     */
+    private static final class Node {
+        private String prefix;
+        private char[] indices = NO_INDICES;
+        private Node[] children = NO_CHILDREN;
+        private Node[] params = NO_CHILDREN;
+        private Node catchAll;
+        private ParamConstraint constraint;
+        private Entry[] entries = NO_ENTRIES;
+
+        private Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * Returns the parameter child for an constraint, creates it if there is none.
+         */
+        private Node param(ParamConstraint constraint) {
+            for (Node param : params) {
+                if (constraint == null ? param.constraint == null : constraint.equals(param.constraint)) {
+                    return param;
+                }
+            }
+
+            Node param = new Node("");
+            param.constraint = constraint;
+            params = Arrays.copyOf(params, params.length + 1);
+            params[params.length - 1] = param;
+            return param;
+        }
+
+        private Node child(char c) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) {
+                    return children[i];
+                }
+            }
+
+            return null;
+        }
+
+        private void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+
+        private void split(int at) {
+            Node tail = new Node(prefix.substring(at));
+            tail.indices = indices;
+            tail.children = children;
+            tail.params = params;
+            tail.catchAll = catchAll;
+            tail.entries = entries;
+
+            prefix = prefix.substring(0, at);
+            indices = NO_INDICES;
+            children = NO_CHILDREN;
+            params = NO_CHILDREN;
+            catchAll = null;
+            entries = NO_ENTRIES;
+            addChild(tail);
+        }
+    }
+
+    /**
+     * The trie of an mounted router.
+     */
+    private static final class Branch {
+        private final Mount mount;
+        private final RouteTrie trie;
+        private final ParamBinding[] bindings;
+
+        private Branch(Mount mount, RouteTrie trie, ParamBinding[] bindings) {
+            this.mount = mount;
+            this.trie = trie;
+            this.bindings = bindings;
+        }
+    }
+
+    /**
+     * Indexed handler with its registration order.
+     */
+    static final class Entry {
+        private final int order;
+        private final int mount;
+        private final HttpRequestHandler handler;
+        private final String[] paramNames;
+        private final ParamConstraint[] constraints;
+        private final Match match;
+        private PipelineStep[] pipeline;
+        private ParamBinding[] bindings;
+
+        private Entry(int order, int mount, HttpRequestHandler handler, String[] paramNames, ParamConstraint[] constraints) {
+            this.order = order;
+            this.mount = mount;
+            this.handler = handler;
+            this.paramNames = paramNames;
+            this.constraints = constraints;
+            this.match = new Match(this, paramNames == null ? null : PathParams.EMPTY);
+        }
+
+        /**
+         * Copy the parsed int parameter of this entry, null if it has none.
+         */
+        private long[] numbers(long[] parsed) {
+            if (constraints == null) {
+                return null;
+            }
+
+            long[] numbers = new long[constraints.length];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = constraints[i] != null && constraints[i].isNumber() ? parsed[i] : ParamConstraint.NO_NUMBER;
+            }
+
+            return numbers;
+        }
+
+        HttpRequestHandler getHandler() {
+            return handler;
+        }
+
+        void setPipeline(PipelineStep[] pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        void setBindings(ParamBinding[] bindings) {
+            this.bindings = bindings;
+        }
+    }
+
+    /**
+     * Result of an lookup, an handler together with the extracted parameter.
+     */
+    static final class Match implements Comparable<Match> {
+        private final Entry entry;
+        private final PathParams params;
+        private final ParamBinding[] bindings;
+
+        private Match(Entry entry, PathParams params) {
+            this(entry, params, null);
+        }
+
+        private Match(Entry entry, PathParams params, ParamBinding[] bindings) {
+            this.entry = entry;
+            this.params = params;
+            this.bindings = bindings;
+        }
+
+        /**
+         * Join the params of an root with parameter into this match.
+         *
+         * @param root         The params of the root.
+         * @param rootBindings The param bindings of the root.
+         * @return The match with the joined params.
+         */
+        private Match withRoot(PathParams root, ParamBinding[] rootBindings) {
+
+            // An '*' filter gets the params of the root only
+            if (params == null) {
+                return new Match(entry, root);
+            }
+
+            ParamBinding[] joined = entry.bindings == null ? null : ParamBinding.join(rootBindings, root.size(), entry.bindings, params.size());
+            return new Match(entry, params.withRoot(root), joined);
+        }
+
+        HttpRequestHandler getHandler() {
+            return entry.handler;
+        }
+
+        PathParams getParams() {
+            return params;
+        }
+
+        /**
+         * @return The param bindings of the handler, null if they weren't compiled.
+         */
+        ParamBinding[] getBindings() {
+            return bindings != null ? bindings : entry.bindings;
+        }
+
+        /**
+         * @return The precompiled middleware of this route, null if there is none.
+         */
+        PipelineStep[] getPipeline() {
+            return entry.pipeline;
+        }
+
+        @Override
+        public int compareTo(Match o) {
+
+            // Handler of an mounted router take the place of the mount
+            int order = entry.mount == -1 ? entry.order : entry.mount;
+            int otherOrder = o.entry.mount == -1 ? o.entry.order : o.entry.mount;
+
+            if (order != otherOrder) {
+                return Integer.compare(order, otherOrder);
+            }
+
+            return Integer.compare(entry.order, o.entry.order);
+        }
+    }
+}
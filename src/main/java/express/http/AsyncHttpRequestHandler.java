@@ -0,0 +1,38 @@
+package express.http;
+
+import express.http.request.Request;
+import express.http.response.Response;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Simon Reinisch
+ * Interface to handle an http-request asynchronously. The worker thread is
+ * released as soon as the handler returns, the remaining handler are fired
+ * when the returned stage completes. If it completes exceptionally and the
+ * response is still open, an '500 Internal Server Error' is sent.
+ */
+@FunctionalInterface
+public interface AsyncHttpRequestHandler extends HttpRequestHandler {
+
+    /**
+     * Handle an http-request
+     *
+     * @param req - The request object
+     * @param res - The response object
+     * @return An stage which completes when the handler is done.
+     */
+    CompletionStage<?> handleAsync(Request req, Response res);
+
+    /**
+     * Handle an http-request and wait until the handler is done,
+     * only used if the handler is fired outside of an route chain.
+     *
+     * @param req - The request object
+     * @param res - The response object
+     */
+    @Override
+    default void handle(Request req, Response res) {
+        handleAsync(req, res).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,25 @@
+package express.http;
+
+import express.http.request.Request;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Simon Reinisch
+ * Interface to resolve an url parameter asynchronously. Async resolvers
+ * of the same route are started together and run in parallel.
+ *
+ * @param <T> The type of the resolved value.
+ */
+@FunctionalInterface
+public interface AsyncParamResolver<T> {
+
+    /**
+     * Start resolving an url parameter.
+     *
+     * @param req   - The request object
+     * @param value - The decoded parameter value
+     * @return The pending value, an exceptional completion answers the request with 500.
+     */
+    CompletionStage<T> resolve(Request req, String value);
+}
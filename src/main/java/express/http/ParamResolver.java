@@ -0,0 +1,23 @@
+package express.http;
+
+import express.http.request.Request;
+
+/**
+ * @author Simon Reinisch
+ * Interface to resolve an url parameter into an value, e.g. an user for an user id.
+ *
+ * @param <T> The type of the resolved value.
+ */
+@FunctionalInterface
+public interface ParamResolver<T> {
+
+    /**
+     * Resolve an url parameter.
+     *
+     * @param req   - The request object
+     * @param value - The decoded parameter value
+     * @return The resolved value, can be null.
+     * @throws Exception If the value cannot be resolved, the request will be answered with 500.
+     */
+    T resolve(Request req, String value) throws Exception;
+}
@@ -0,0 +1,34 @@
+package express.http;
+
+import java.util.Locale;
+
+/**
+ * @author Simon Reinisch
+ * Enum with the priority classes of an request. If the server is
+ * saturated, requests with an higher priority are admitted first.
+ */
+public enum Priority {
+
+    LOW,
+    NORMAL,
+    HIGH,
+    CRITICAL;
+
+    /**
+     * Find the priority for an name like 'high', the name is case insensitive.
+     *
+     * @param name The priority name.
+     * @return The priority, null if there is none with this name.
+     */
+    public static Priority of(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
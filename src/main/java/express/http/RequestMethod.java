@@ -29,4 +29,41 @@ public enum RequestMethod {
     public String getMethod() {
         return method;
     }
+
+    /**
+     * Find the request method for an method name, the name is case sensitive.
+     *
+     * @param method The method name, '*' for ALL.
+     * @return The request method, null if it's not one of the basic methods.
+     */
+    public static RequestMethod of(String method) {
+        if (method == null) {
+            return null;
+        }
+
+        switch (method) {
+            case "GET":
+                return GET;
+            case "POST":
+                return POST;
+            case "PUT":
+                return PUT;
+            case "PATCH":
+                return PATCH;
+            case "DELETE":
+                return DELETE;
+            case "CONNECT":
+                return CONNECT;
+            case "OPTIONS":
+                return OPTIONS;
+            case "TRACE":
+                return TRACE;
+            case "HEAD":
+                return HEAD;
+            case "*":
+                return ALL;
+            default:
+                return null;
+        }
+    }
 }
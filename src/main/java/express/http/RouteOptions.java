@@ -0,0 +1,122 @@
+package express.http;
+
+import express.http.request.Request;
+import express.http.response.Response;
+import express.server.Bulkhead;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Wraps the handler of an route with options which are needed before the
+ * handler runs, e.g. to admit the request. The options are read once when
+ * the route table is compiled.
+ * <pre>
+ *     app.get("/health", RouteOptions.of((req, res) -&gt; res.send("ok")).priority(Priority.CRITICAL));
+ * </pre>
+ */
+public final class RouteOptions implements HttpRequestHandler {
+
+    private final HttpRequestHandler handler;
+    private final Priority priority;
+    private final Bulkhead bulkhead;
+    private final String executor;
+    private final long timeout;
+
+    private RouteOptions(HttpRequestHandler handler, Priority priority, Bulkhead bulkhead, String executor, long timeout) {
+        this.handler = handler;
+        this.priority = priority;
+        this.bulkhead = bulkhead;
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param handler The handler of the route.
+     * @return Options with the default values.
+     */
+    public static RouteOptions of(HttpRequestHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler cannot be null.");
+        }
+
+        return new RouteOptions(handler, Priority.NORMAL, null, null, 0);
+    }
+
+    /**
+     * @param priority The priority of requests to this route, default is NORMAL.
+     * @return An copy with the new priority.
+     */
+    public RouteOptions priority(Priority priority) {
+        return new RouteOptions(handler, priority, bulkhead, executor, timeout);
+    }
+
+    /**
+     * @param bulkhead The bulkhead which limits the concurrent requests to this route, null for no limit.
+     * @return An copy with the new bulkhead.
+     */
+    public RouteOptions bulkhead(Bulkhead bulkhead) {
+        return new RouteOptions(handler, priority, bulkhead, executor, timeout);
+    }
+
+    /**
+     * @param executor The name of the executor which runs this route, e.g. 'sse', 'upload' or
+     *                 an name registered with {@link express.Express#setExecutor(String, java.util.concurrent.Executor)}.
+     * @return An copy with the new executor.
+     */
+    public RouteOptions executor(String executor) {
+        return new RouteOptions(handler, priority, bulkhead, executor, timeout);
+    }
+
+    /**
+     * @param timeout The time budget of requests to this route in milliseconds, replaces
+     *                the timeout of the app. Zero to use the timeout of the app.
+     * @return An copy with the new timeout.
+     */
+    public RouteOptions timeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+
+        return new RouteOptions(handler, priority, bulkhead, executor, timeout);
+    }
+
+    @Override
+    public void handle(Request req, Response res) {
+        handler.handle(req, res);
+    }
+
+    /**
+     * @return The handler of the route.
+     */
+    public HttpRequestHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return The priority of requests to this route.
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The bulkhead of this route, null if there is none.
+     */
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * @return The name of the executor which runs this route, null for the default one.
+     */
+    public String getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return The time budget of requests to this route in milliseconds, zero if there is none.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
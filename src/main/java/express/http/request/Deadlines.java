@@ -0,0 +1,49 @@
+package express.http.request;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Shared timer for request deadlines, it also runs the cancel listener of the
+ * requests so they never run on the thread of an server engine.
+ */
+final class Deadlines {
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "express-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Most deadlines are cancelled because the request finished in time
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    // Don't allow instantiating this class
+    private Deadlines() {}
+
+    /**
+     * @param task     The task.
+     * @param deadline The point in time when the task should run.
+     * @return The scheduled task.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, Instant deadline) {
+        long delay = Math.max(0, Duration.between(Instant.now(), deadline).toNanos());
+        return TIMER.schedule(task, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param task The task which should run on the timer thread.
+     */
+    static void execute(Runnable task) {
+        TIMER.execute(task);
+    }
+}
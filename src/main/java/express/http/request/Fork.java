@@ -0,0 +1,166 @@
+package express.http.request;
+
+import express.ExpressException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Subtasks of an request which run in parallel, created with {@link Request#fork(Callable[])}.
+ * If one subtask fails the others are cancelled, the same happens if the request is
+ * cancelled because the deadline passed or the client disconnected. Subtasks never
+ * outlive the request, the ones which are still running when it is finished are cancelled.
+ * <pre>
+ *     List&lt;Object&gt; results = req.fork(() -&gt; users.find(id), () -&gt; orders.of(id)).join();
+ * </pre>
+ *
+ * @param <T> The type of the results.
+ */
+public class Fork<T> {
+
+    private final List<Subtask> tasks;
+    private final AtomicInteger remaining;
+    private final CompletableFuture<List<T>> result;
+
+    Fork(Request request, Executor executor, List<Callable<? extends T>> callables) {
+        this.tasks = new ArrayList<>(callables.size());
+        this.remaining = new AtomicInteger(callables.size());
+        this.result = new CompletableFuture<>();
+
+        for (Callable<? extends T> callable : callables) {
+            tasks.add(new Subtask(callable));
+        }
+
+        if (tasks.isEmpty()) {
+            result.complete(new ArrayList<>());
+            return;
+        }
+
+        request.onCancel(this::cancel);
+        request.onFinish(this::cancel);
+
+        for (Subtask task : tasks) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+
+                // The executor is saturated, the forking thread runs it
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Wait until every subtask is done. Subtasks which didn't start yet run
+     * on the calling thread, so an saturated executor can't stall the fork.
+     *
+     * @return The results in the order of the subtasks.
+     * @throws ExpressException If an subtask failed, the fork was cancelled or the thread was interrupted.
+     */
+    public List<T> join() {
+        for (Subtask task : tasks) {
+            if (result.isDone()) {
+                break;
+            }
+
+            task.run();
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new ExpressException("Interrupted while joining the fork.", e);
+        } catch (ExecutionException e) {
+            throw new ExpressException("Subtask of the fork failed.", e.getCause());
+        } catch (CancellationException e) {
+            throw new ExpressException("Fork was cancelled.", e);
+        }
+    }
+
+    /**
+     * Await the results without blocking, e.g. as result of an async handler.
+     *
+     * @return An stage which completes with the results in the order of the subtasks.
+     */
+    public CompletionStage<List<T>> stage() {
+        return result.minimalCompletionStage();
+    }
+
+    /**
+     * Cancel the subtasks which are not done yet, running ones are interrupted.
+     */
+    public void cancel() {
+        if (result.completeExceptionally(new CancellationException("Fork was cancelled."))) {
+            tasks.forEach(task -> task.cancel(true));
+        }
+    }
+
+    /**
+     * @return True if every subtask is done, also if one failed or the fork was cancelled.
+     */
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    private void done(Subtask task) {
+        if (task.isCancelled()) {
+            cancel();
+            return;
+        }
+
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+
+            // The first failure decides, the siblings are useless now
+            if (result.completeExceptionally(e.getCause())) {
+                tasks.forEach(sibling -> sibling.cancel(true));
+            }
+
+            return;
+        } catch (InterruptedException | CancellationException e) {
+            cancel();
+            return;
+        }
+
+        if (remaining.decrementAndGet() == 0) {
+            List<T> values = new ArrayList<>(tasks.size());
+
+            for (Subtask subtask : tasks) {
+                try {
+                    values.add(subtask.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new CompletionException(e);
+                }
+            }
+
+            result.complete(values);
+        }
+    }
+
+    private final class Subtask extends FutureTask<T> {
+
+        private Subtask(Callable<? extends T> callable) {
+            super(callable::call);
+        }
+
+        @Override
+        protected void done() {
+            Fork.this.done(this);
+        }
+    }
+}
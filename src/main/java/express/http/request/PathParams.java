@@ -0,0 +1,210 @@
+package express.http.request;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * URL parameter of an matched route. Only the start and end offsets into the
+ * raw request path are stored, a value will be decoded the first time it's requested.
+ * Parameter with an int constraint are already parsed while the route is matched.
+ */
+public final class PathParams {
+
+    /**
+     * Params of an route without parameter.
+     */
+    public static final PathParams EMPTY = new PathParams("", new String[0], new int[0]);
+
+    private final String path;
+    private final String[] names;
+    private final int[] offsets;
+    private final long[] numbers;
+    private String[] values;
+
+    /**
+     * @param path    The raw request path.
+     * @param names   The parameter names.
+     * @param offsets Start and end index in the path for every parameter.
+     */
+    public PathParams(String path, String[] names, int[] offsets) {
+        this(path, names, offsets, null);
+    }
+
+    /**
+     * @param path    The raw request path.
+     * @param names   The parameter names.
+     * @param offsets Start and end index in the path for every parameter.
+     * @param numbers The parsed value of every int parameter, Long.MIN_VALUE for the others. Can be null.
+     */
+    public PathParams(String path, String[] names, int[] offsets, long[] numbers) {
+        this.path = path;
+        this.names = names;
+        this.offsets = offsets;
+        this.numbers = numbers;
+    }
+
+    /**
+     * @return The amount of parameter.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param index The parameter index.
+     * @return The parameter name.
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the decoded value of an parameter.
+     *
+     * @param index The parameter index.
+     * @return The decoded value.
+     */
+    public String getValue(int index) {
+        if (values == null) {
+            values = new String[names.length];
+        }
+
+        String value = values[index];
+        if (value == null) {
+            value = values[index] = decode(path.substring(offsets[index * 2], offsets[index * 2 + 1]));
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the value of an parameter as int. Values of an ':name(int)'
+     * parameter are returned without parsing them again.
+     *
+     * @param index The parameter index.
+     * @return The value.
+     * @throws NumberFormatException If the value isn't an int.
+     */
+    public int getInt(int index) {
+        if (numbers != null && numbers[index] != Long.MIN_VALUE) {
+            return (int) numbers[index];
+        }
+
+        return Integer.parseInt(getValue(index));
+    }
+
+    /**
+     * Returns the value of an parameter as int, if the name is used
+     * multiple times the last one wins.
+     *
+     * @param name The parameter name.
+     * @return The value.
+     * @throws NumberFormatException If there is no such parameter or the value isn't an int.
+     */
+    public int getInt(String name) {
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i].equals(name)) {
+                return getInt(i);
+            }
+        }
+
+        throw new NumberFormatException("No parameter named " + name);
+    }
+
+    /**
+     * Returns the decoded value of an parameter, if the name is used
+     * multiple times the last one wins.
+     *
+     * @param name The parameter name.
+     * @return The decoded value, null if there is none.
+     */
+    public String get(String name) {
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i].equals(name)) {
+                return getValue(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns params for an other route with the same pattern,
+     * the offsets are shared but the values are decoded again.
+     *
+     * @param names The parameter names of the other route.
+     * @return The params with the new names.
+     */
+    public PathParams withNames(String[] names) {
+        return names == this.names ? this : new PathParams(path, names, offsets, numbers);
+    }
+
+    /**
+     * Returns the params of an route which is part of an router mounted under
+     * an root with parameter. The parameter of the root come first, so the
+     * ones of the route win if a name is used twice.
+     *
+     * @param root The params of the root, taken from the same path.
+     * @return The joined params.
+     */
+    public PathParams withRoot(PathParams root) {
+        int rootCount = root.names.length;
+        if (rootCount == 0) {
+            return this;
+        }
+
+        int count = rootCount + names.length;
+        String[] joinedNames = Arrays.copyOf(root.names, count);
+        System.arraycopy(names, 0, joinedNames, rootCount, names.length);
+
+        int[] joinedOffsets = Arrays.copyOf(root.offsets, count * 2);
+        System.arraycopy(offsets, 0, joinedOffsets, rootCount * 2, names.length * 2);
+
+        long[] joinedNumbers = null;
+        if (root.numbers != null || numbers != null) {
+            joinedNumbers = new long[count];
+            Arrays.fill(joinedNumbers, Long.MIN_VALUE);
+
+            if (root.numbers != null) {
+                System.arraycopy(root.numbers, 0, joinedNumbers, 0, rootCount);
+            }
+
+            if (numbers != null) {
+                System.arraycopy(numbers, 0, joinedNumbers, rootCount, names.length);
+            }
+        }
+
+        return new PathParams(root.path, joinedNames, joinedOffsets, joinedNumbers);
+    }
+
+    /**
+     * @return All parameter decoded in a new map.
+     */
+    public HashMap<String, String> toMap() {
+        HashMap<String, String> map = new HashMap<>();
+
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], getValue(i));
+        }
+
+        return map;
+    }
+
+    private static String decode(String val) {
+        if (val.indexOf('%') == -1 && val.indexOf('+') == -1) {
+            return val;
+        }
+
+        try {
+            return URLDecoder.decode(val, "UTF8");
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+
+        return val;
+    }
+}
@@ -2,10 +2,11 @@ package express.http.request;
 
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpsExchange;
 import express.Express;
 import express.filter.Filter;
 import express.http.Cookie;
+import express.server.Exchange;
+import express.server.JdkExchange;
 import express.utils.Utils;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
@@ -21,6 +22,9 @@ import java.nio.file.Path;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -33,6 +37,7 @@ import java.util.stream.Collectors;
 public class Request {
 
     private final Express express;
+    private final Exchange exchange;
 
     private final String protocol;                      // Request protocol
     private final URI uri;                              // Request uri
@@ -51,18 +56,33 @@ public class Request {
     private final HashMap<String, String> formQueries;  // Form query parameters (application/x-www-form-urlencoded)
     private Map<String, List<FileItem>> formData;       // Form Data (multipart/form-data)
 
-    private HashMap<String, String> params;             // URL Params, would be added in ExpressFilterImpl
+    private HashMap<String, String> params;             // URL Params, decoded on first access of getParams()
+    private PathParams pathParams;                      // URL Params, would be added in ExpressFilterImpl
+    private HashMap<String, Object[]> resolvedParams;   // Values of param resolvers, memoized per request
     private String context;                             // Context which matched
+    private List<Runnable> finishListener;              // Called when the handler chain is done
+    private List<Runnable> cancelListener;              // Called when the request is cancelled
+    private ScheduledFuture<?> deadlineTimer;           // Cancels the request at the deadline
+    private volatile Instant deadline;                  // Point in time when the request expires
+    private volatile Executor executor;                 // Executor of the route, runs the subtasks of forks
+    private volatile Executor resumeExecutor;           // Continues the handler chain after async steps
+    private volatile boolean cancelled;
+    private boolean finished;
     private final Logger logger;
 
     {
         this.middleware = new HashMap<>();
-        this.params = new HashMap<>();
+        this.pathParams = PathParams.EMPTY;
         this.logger = Logger.getLogger(getClass().getSimpleName());
     }
 
     public Request(HttpExchange exchange, Express express) {
+        this(new JdkExchange(exchange), express);
+    }
+
+    public Request(Exchange exchange, Express express) {
         this.express = express;
+        this.exchange = exchange;
         this.method = exchange.getRequestMethod();
         this.uri = exchange.getRequestURI();
         this.headers = exchange.getRequestHeaders();
@@ -70,7 +90,7 @@ public class Request {
         this.inet = exchange.getRemoteAddress();
 
         this.protocol = exchange.getProtocol();
-        this.secure = exchange instanceof HttpsExchange; // Can be secured?
+        this.secure = exchange.isSecure(); // Can be secured?
 
         // Parse content length
         String contentLength = headers.get("Content-Length") != null ? headers.get("Content-Length").get(0) : null;
@@ -100,6 +120,9 @@ public class Request {
         // Parse query and cookies, both returns not null if there is nothing
         this.queries = RequestUtils.parseRawQuery(exchange.getRequestURI().getRawQuery());
         this.cookies = RequestUtils.parseCookies(headers);
+
+        // Abandoned requests don't need to be processed any further
+        exchange.onDisconnect(this::cancel);
     }
 
     /**
@@ -217,19 +240,19 @@ public class Request {
     /**
      * Returns the InetAddress from the client.
      *
-     * @return The InetAddress.
+     * @return The InetAddress, null if the request came over an unix domain socket.
      */
     public InetAddress getAddress() {
-        return inet.getAddress();
+        return inet == null ? null : inet.getAddress();
     }
 
     /**
      * Returns the IP-Address from the client.
      *
-     * @return The IP-Address.
+     * @return The IP-Address, null if the request came over an unix domain socket.
      */
     public String getIp() {
-        return inet.getAddress().getHostAddress();
+        return inet == null ? null : inet.getAddress().getHostAddress();
     }
 
     /**
@@ -383,7 +406,59 @@ public class Request {
      * @return The value, null if there is none.
      */
     public String getParam(String param) {
-        return params.get(param);
+        return params != null ? params.get(param) : pathParams.get(param);
+    }
+
+    /**
+     * Returns an param from a dynamic url as int, values of an ':name(int)'
+     * parameter are already parsed when the route was matched.
+     *
+     * @param param The param.
+     * @return The value.
+     * @throws NumberFormatException If there is no such param or it isn't an int.
+     */
+    public int getParamInt(String param) {
+        return params != null ? Integer.parseInt(params.get(param)) : pathParams.getInt(param);
+    }
+
+    /**
+     * Returns the value which the param resolver of an param produced for this request.
+     *
+     * @param param The param.
+     * @param <T>   The type of the resolved value.
+     * @return The resolved value, null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getResolvedParam(String param) {
+        Object[] resolved = resolvedParams == null ? null : resolvedParams.get(param);
+        return resolved == null ? null : (T) resolved[1];
+    }
+
+    /**
+     * Check if an param value was already resolved during this request.
+     *
+     * @param param The param.
+     * @param value The raw value of the param.
+     * @return True if the resolver doesn't need to be called again.
+     */
+    public boolean isResolved(String param, String value) {
+        Object[] resolved = resolvedParams == null ? null : resolvedParams.get(param);
+        return resolved != null && resolved[0].equals(value);
+    }
+
+    /**
+     * Save the value of an param resolver.
+     *
+     * @param param    The param.
+     * @param value    The raw value of the param.
+     * @param resolved The resolved value.
+     */
+    public void setResolvedParam(String param, String value, Object resolved) {
+        if (resolvedParams == null) {
+            resolvedParams = new HashMap<>();
+        }
+
+        resolvedParams.put(param, new Object[]{value, resolved});
     }
 
     /**
@@ -411,6 +486,10 @@ public class Request {
      * @return An entire list of key-values
      */
     public HashMap<String, String> getParams() {
+        if (params == null) {
+            params = pathParams.toMap();
+        }
+
         return params;
     }
 
@@ -421,6 +500,17 @@ public class Request {
      */
     public void setParams(HashMap<String, String> params) {
         this.params = params;
+        this.pathParams = PathParams.EMPTY;
+    }
+
+    /**
+     * Set the params, they will be decoded on demand.
+     *
+     * @param params Request parameter
+     */
+    public void setParams(PathParams params) {
+        this.params = null;
+        this.pathParams = params;
     }
 
     /**
@@ -460,6 +550,236 @@ public class Request {
         return Optional.ofNullable(headers.get(header)).orElse(Collections.emptyList());
     }
 
+    /**
+     * @return The point in time when this request expires, null if it has no deadline.
+     */
+    public Instant deadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the deadline of this request, it can only be moved closer. Once it passed the
+     * request is cancelled and the remaining handler are skipped, the response is
+     * '504 Gateway Timeout' if nobody answered.
+     *
+     * @param deadline The point in time when this request expires.
+     */
+    public synchronized void setDeadline(Instant deadline) {
+        if (deadline == null || (this.deadline != null && !deadline.isBefore(this.deadline))) {
+            return;
+        }
+
+        this.deadline = deadline;
+
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel(false);
+        }
+
+        if (!finished && !cancelled) {
+            deadlineTimer = Deadlines.schedule(this::cancel, deadline);
+        }
+    }
+
+    /**
+     * @return True if the deadline of this request passed.
+     */
+    public boolean isExpired() {
+        Instant deadline = this.deadline;
+        return deadline != null && !Instant.now().isBefore(deadline);
+    }
+
+    /**
+     * Long running handler should check this from time to time and stop
+     * if the request was cancelled, nobody is waiting for the result.
+     *
+     * @return True if the deadline passed, the client disconnected or the request was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled || isExpired() || exchange.isDisconnected();
+    }
+
+    /**
+     * Add an listener which is called once if the request is cancelled, e.g. to
+     * stop async work which was started for it. Listener are called on an shared
+     * timer thread and must not block, if the request is already cancelled the
+     * listener is called immediately.
+     *
+     * @param listener The listener.
+     */
+    public void onCancel(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                if (!finished) {
+                    if (cancelListener == null) {
+                        cancelListener = new ArrayList<>(2);
+                    }
+
+                    cancelListener.add(listener);
+                }
+
+                return;
+            }
+        }
+
+        listener.run();
+    }
+
+    /**
+     * Cancel this request, the remaining handler are skipped and the cancel listener are called.
+     */
+    public void cancel() {
+        List<Runnable> listener;
+
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+
+            cancelled = true;
+            listener = cancelListener;
+            cancelListener = null;
+        }
+
+        if (listener == null) {
+            return;
+        }
+
+        // Can be called by the server engine, the listener run on the timer
+        Deadlines.execute(() -> {
+            for (Runnable runnable : listener) {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Cancel listener failed.", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run subtasks in parallel on the executor of the route, with virtual threads
+     * enabled every subtask gets its own one. The handler pays only the latency
+     * of the slowest subtask instead of the sum of all:
+     * <pre>
+     *     List&lt;Object&gt; results = req.fork(() -&gt; users.find(id), () -&gt; orders.of(id)).join();
+     * </pre>
+     * If one subtask fails the others are cancelled. The subtasks are also cancelled
+     * with the request, e.g. when its deadline passed, and at the latest when it is finished.
+     *
+     * @param tasks The subtasks.
+     * @param <T>   The type of the results.
+     * @return The fork, join it to get the results.
+     */
+    @SafeVarargs
+    public final <T> Fork<T> fork(Callable<? extends T>... tasks) {
+        List<Callable<? extends T>> list = new ArrayList<>(tasks.length);
+        for (Callable<? extends T> task : tasks) {
+            list.add(task);
+        }
+
+        return new Fork<>(this, getExecutor(), list);
+    }
+
+    /**
+     * Run subtasks in parallel on an specific executor, see {@link #fork(Callable[])}.
+     *
+     * @param executor The executor of the subtasks.
+     * @param tasks    The subtasks.
+     * @param <T>      The type of the results.
+     * @return The fork, join it to get the results.
+     */
+    @SafeVarargs
+    public final <T> Fork<T> fork(Executor executor, Callable<? extends T>... tasks) {
+
+        // The varargs array itself is never passed on
+        List<Callable<? extends T>> list = new ArrayList<>(tasks.length);
+        for (Callable<? extends T> task : tasks) {
+            list.add(task);
+        }
+
+        return new Fork<>(this, executor, list);
+    }
+
+    /**
+     * @return The executor of the route, the default executor of express if none is set.
+     */
+    public Executor getExecutor() {
+        Executor executor = this.executor;
+        return executor != null ? executor : express.getExecutor();
+    }
+
+    /**
+     * Set the executor which runs the subtasks of forks, only used by express.
+     *
+     * @param executor The executor of the route.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return The executor which continues the handler chain after an async step, the executor of the route if none is set.
+     */
+    public Executor getResumeExecutor() {
+        Executor resumeExecutor = this.resumeExecutor;
+        return resumeExecutor != null ? resumeExecutor : getExecutor();
+    }
+
+    /**
+     * Set the executor which continues the handler chain, only used by express.
+     * The request was already admitted, so it never rejects the continuation.
+     *
+     * @param resumeExecutor The executor.
+     */
+    public void setResumeExecutor(Executor resumeExecutor) {
+        this.resumeExecutor = resumeExecutor;
+    }
+
+    /**
+     * Add an listener which is called once the handler chain of this request is
+     * finished, also if an async handler completes later on or an handler failed.
+     *
+     * @param listener The listener.
+     */
+    public synchronized void onFinish(Runnable listener) {
+        if (finishListener == null) {
+            finishListener = new ArrayList<>(2);
+        }
+
+        finishListener.add(listener);
+    }
+
+    /**
+     * Call the finish listener, only used by express when the handler chain is done.
+     */
+    public void finish() {
+        List<Runnable> listener;
+
+        synchronized (this) {
+            listener = finishListener;
+            finishListener = null;
+            cancelListener = null;
+            finished = true;
+
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+                deadlineTimer = null;
+            }
+        }
+
+        if (listener == null) {
+            return;
+        }
+
+        for (Runnable runnable : listener) {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Finish listener failed.", e);
+            }
+        }
+    }
+
     /**
      * @return The corresponding express object.
      */
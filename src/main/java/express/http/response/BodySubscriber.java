@@ -0,0 +1,218 @@
+package express.http.response;
+
+import express.server.Exchange;
+import express.utils.Status;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Subscriber which writes the items of an publisher as chunked response body.
+ * Only one item is requested at a time and the next one after the previous
+ * was written, so an slow client throttles the publisher instead of
+ * filling up the heap. Cancelling the completion cancels the subscription
+ * and closes the response, an running write is finished first.
+ */
+final class BodySubscriber<T> implements Flow.Subscriber<T> {
+
+    private static final int COPY_SIZE = 8192;
+
+    private final Exchange exchange;
+    private final int status;
+    private final Function<? super T, ByteBuffer> encoder;
+    private final Logger logger;
+    private final CompletableFuture<Void> completion;
+
+    private volatile Flow.Subscription subscription;
+    private OutputStream body;
+    private byte[] copy;
+    private boolean writing;        // Guarded by this
+    private boolean aborted;        // Guarded by this
+
+    BodySubscriber(Exchange exchange, int status, Function<? super T, ByteBuffer> encoder, Logger logger) {
+        this.exchange = exchange;
+        this.status = status;
+        this.encoder = encoder;
+        this.logger = logger;
+        this.completion = new CompletableFuture<>();
+
+        // E.g. the request was cancelled, the publisher doesn't need to go on
+        completion.whenComplete((result, error) -> {
+            if (completion.isCancelled()) {
+                abort();
+            }
+        });
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+
+        this.subscription = subscription;
+
+        // The completion can be cancelled before the publisher subscribed
+        if (completion.isDone()) {
+            subscription.cancel();
+            return;
+        }
+
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(T item) {
+        synchronized (this) {
+            if (completion.isDone()) {
+                return;
+            }
+
+            writing = true;
+        }
+
+        boolean failed = false;
+        try {
+            ByteBuffer buffer = encoder.apply(item);
+            OutputStream body = open();
+
+            if (buffer != null && buffer.hasRemaining()) {
+                write(body, buffer);
+                body.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            finish(e);
+            failed = true;
+        }
+
+        boolean aborted;
+        synchronized (this) {
+            writing = false;
+            aborted = this.aborted;
+        }
+
+        if (aborted) {
+
+            // Cancelled during the write, the response is closed here
+            exchange.close();
+        } else if (!failed) {
+
+            // The write returned, so the engine has room for the next item
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        finish(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            open();
+            finish(null);
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    /**
+     * @return An future which completes when the response is finished.
+     */
+    CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Stop the publisher and close the response, unless an write is running.
+     */
+    private void abort() {
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+
+        boolean started;
+        synchronized (this) {
+            aborted = true;
+
+            if (writing) {
+                return;
+            }
+
+            started = body != null;
+        }
+
+        // Nothing was sent yet, the request is answered like an other cancelled one
+        if (!started) {
+            try {
+                exchange.sendResponseHeaders(Status._503.getCode(), -1);
+            } catch (IOException ignore) { }
+        }
+
+        exchange.close();
+    }
+
+    private OutputStream open() throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, 0);
+            body = exchange.getResponseBody();
+        }
+
+        return body;
+    }
+
+    private void write(OutputStream body, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        if (copy == null) {
+            copy = new byte[COPY_SIZE];
+        }
+
+        while (buffer.hasRemaining()) {
+            int n = Math.min(copy.length, buffer.remaining());
+            buffer.get(copy, 0, n);
+            body.write(copy, 0, n);
+        }
+    }
+
+    private void finish(Throwable error) {
+        if (completion.isDone()) {
+            return;
+        }
+
+        if (error != null) {
+            logger.log(Level.INFO, "Failed to stream publisher to client.", error);
+
+            // Nothing was sent yet, so the client can still get an error
+            if (body == null) {
+                try {
+                    exchange.sendResponseHeaders(Status._500.getCode(), -1);
+                } catch (IOException ignore) { }
+            }
+        }
+
+        exchange.close();
+
+        if (error != null) {
+            completion.completeExceptionally(error);
+        } else {
+            completion.complete(null);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import express.http.Cookie;
+import express.server.Exchange;
+import express.server.JdkExchange;
 import express.utils.MediaType;
 import express.utils.Status;
 import express.utils.Utils;
@@ -12,10 +14,15 @@ import express.utils.Utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,7 +32,7 @@ import java.util.logging.Logger;
  */
 public class Response {
 
-    private final HttpExchange httpExchange;
+    private final Exchange exchange;
     private final OutputStream body;
     private final Headers headers;
     private final Logger logger;
@@ -34,6 +41,7 @@ public class Response {
     private boolean isClose;
     private long contentLength;
     private int status;
+    private CompletableFuture<Void> streaming;
 
     private final ObjectMapper objectMapper;
 
@@ -48,7 +56,11 @@ public class Response {
     }
 
     public Response(HttpExchange exchange) {
-        this.httpExchange = exchange;
+        this(new JdkExchange(exchange));
+    }
+
+    public Response(Exchange exchange) {
+        this.exchange = exchange;
         this.headers = exchange.getResponseHeaders();
         this.body = exchange.getResponseBody();
     }
@@ -136,10 +148,17 @@ public class Response {
     }
 
     /**
-     * @return The raw exchange object
+     * @return The raw exchange object, null if the server isn't the JDK http server.
      */
     public HttpExchange getRaw() {
-        return httpExchange;
+        return exchange instanceof JdkExchange ? ((JdkExchange) exchange).getHttpExchange() : null;
+    }
+
+    /**
+     * @return The exchange of the server engine.
+     */
+    public Exchange getExchange() {
+        return exchange;
     }
 
     /**
@@ -411,6 +430,76 @@ public class Response {
         return true;
     }
 
+    /**
+     * Streams the buffers of an publisher to the client, the body is sent chunked.
+     * The next buffer is only requested after the previous one was written, so an
+     * slow client throttles the publisher. The response is closed immediately,
+     * the stream finishes on the threads of the publisher and the request ends
+     * with it. Cancelling the future or the request stops the publisher.
+     *
+     * @param publisher The publisher of the body.
+     * @return An future which completes when the response is finished.
+     */
+    public CompletableFuture<Void> send(Flow.Publisher<ByteBuffer> publisher) {
+        return send(publisher, buffer -> buffer);
+    }
+
+    /**
+     * Streams the items of an publisher to the client, each item is serialized
+     * with the encoder. See {@link #send(Flow.Publisher)}.
+     *
+     * @param publisher The publisher of the items.
+     * @param encoder   Function which serializes an item.
+     * @param <T>       The type of the items.
+     * @return An future which completes when the response is finished.
+     */
+    public <T> CompletableFuture<Void> send(Flow.Publisher<T> publisher, Function<? super T, ByteBuffer> encoder) {
+        if (isClosed() || publisher == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Fallback
+        String contentType = getContentType() == null ? MediaType._bin.getExtension() : getContentType();
+        this.headers.set("Content-Type", contentType);
+        this.contentLength = 0;
+        this.isClose = true;
+
+        BodySubscriber<T> subscriber = new BodySubscriber<>(exchange, status, encoder, logger);
+        streaming = subscriber.getCompletion();
+        publisher.subscribe(subscriber);
+        return streaming;
+    }
+
+    /**
+     * Streams the items of an publisher as newline delimited json.
+     * See {@link #send(Flow.Publisher)}.
+     *
+     * @param publisher The publisher of the items.
+     * @return An future which completes when the response is finished.
+     */
+    public CompletableFuture<Void> json(Flow.Publisher<?> publisher) {
+        if (isClosed()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        this.contentType = "application/x-ndjson";
+        return send(publisher, item -> {
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(item);
+                return ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * @return An future which completes when the body of an publisher is sent, null if no publisher is streamed.
+     */
+    public CompletableFuture<Void> getStreaming() {
+        return streaming;
+    }
+
     /**
      * @return If the response is already closed (headers are send).
      */
@@ -437,7 +526,7 @@ public class Response {
 
             // Set header and send response
             this.headers.set("Content-Type", contentType);
-            this.httpExchange.sendResponseHeaders(status, contentLength);
+            this.exchange.sendResponseHeaders(status, contentLength);
         } catch (IOException e) {
             logger.log(Level.INFO, "Failed to send headers.", e);
         }
@@ -0,0 +1,191 @@
+package express.middleware;
+
+import express.http.HttpRequestHandler;
+import express.http.request.Request;
+import express.http.response.Response;
+import express.utils.Status;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Middleware which limits the concurrent requests and tunes the limit from the
+ * observed latency. After every window of samples the average latency is compared
+ * with the lowest latency seen: as long as it stays within the tolerance the limit
+ * grows, if the requests get slower it shrinks by the gradient of both. Requests
+ * over the limit are shed right away. Should be the first middleware, the latency
+ * is measured until the handler chain is done.
+ * <pre>
+ *     AdaptiveLimiter limiter = Middleware.adaptiveLimiter();
+ *     app.use(limiter);
+ * </pre>
+ */
+public class AdaptiveLimiter implements HttpRequestHandler {
+
+    private static final double SMOOTHING = 0.2;
+    private static final int PROBE_WINDOWS = 500;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight;
+    private final AtomicInteger windowShed;
+    private final AtomicLong shed;
+    private final ReentrantLock lock;
+
+    private volatile double limit;
+    private volatile double shedRate;
+    private volatile double tolerance;
+    private volatile int windowSize;
+    private volatile Status rejectStatus;
+
+    // Current window, guarded by the lock
+    private long rttSum;
+    private int samples;
+    private int maxInFlight;
+    private int windows;
+    private double minRtt;
+
+    /**
+     * @param initialLimit The limit to start with.
+     * @param minLimit     The lowest limit.
+     * @param maxLimit     The highest limit.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max.");
+        }
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.inFlight = new AtomicInteger();
+        this.windowShed = new AtomicInteger();
+        this.shed = new AtomicLong();
+        this.lock = new ReentrantLock();
+        this.tolerance = 1.5;
+        this.windowSize = 50;
+        this.rejectStatus = Status._503;
+    }
+
+    @Override
+    public void handle(Request req, Response res) {
+        int current;
+
+        do {
+            current = inFlight.get();
+
+            if (current >= (int) limit) {
+                shed.incrementAndGet();
+                windowShed.incrementAndGet();
+                res.sendStatus(rejectStatus);
+                return;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        long start = System.nanoTime();
+        req.onFinish(() -> sample(System.nanoTime() - start, inFlight.getAndDecrement()));
+    }
+
+    private void sample(long rtt, int concurrent) {
+        lock.lock();
+        try {
+            rttSum += rtt;
+            samples++;
+            maxInFlight = Math.max(maxInFlight, concurrent);
+
+            if (samples < windowSize) {
+                return;
+            }
+
+            double shortRtt = (double) rttSum / samples;
+            int dropped = windowShed.getAndSet(0);
+            shedRate = (double) dropped / (dropped + samples);
+
+            // Forget the lowest latency from time to time, the backend can change
+            if (++windows >= PROBE_WINDOWS) {
+                windows = 0;
+                minRtt = 0;
+            }
+
+            if (minRtt == 0 || shortRtt < minRtt) {
+                minRtt = shortRtt;
+            }
+
+            // An limit which wasn't used says nothing about the latency
+            double current = limit;
+            if (maxInFlight >= current / 2) {
+                double gradient = Math.max(0.5, Math.min(1.0, tolerance * minRtt / shortRtt));
+                double next = current * gradient + Math.sqrt(current);
+
+                next = current * (1 - SMOOTHING) + next * SMOOTHING;
+                limit = Math.max(minLimit, Math.min(maxLimit, next));
+            }
+
+            rttSum = 0;
+            samples = 0;
+            maxInFlight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The current concurrency limit.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The amount of requests which are running.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return The amount of requests which were shed since the limiter was created.
+     */
+    public long getShed() {
+        return shed.get();
+    }
+
+    /**
+     * @return The share of requests which were shed in the last window, between 0 and 1.
+     */
+    public double getShedRate() {
+        return shedRate;
+    }
+
+    /**
+     * @param tolerance How much slower than the lowest latency requests can get before the limit shrinks, default is 1.5.
+     */
+    public void setTolerance(double tolerance) {
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("Tolerance cannot be less than 1.");
+        }
+
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param windowSize The amount of samples after which the limit is updated, default is 50.
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1.");
+        }
+
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @param rejectStatus The status of shed requests, default is 503.
+     */
+    public void setRejectStatus(Status rejectStatus) {
+        this.rejectStatus = rejectStatus;
+    }
+}
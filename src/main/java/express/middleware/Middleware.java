@@ -66,4 +66,27 @@ public final class Middleware {
     public static Cors cors() {
         return new Cors(new CorsOptions());
     }
+
+    /**
+     * Middleware which tunes its concurrency limit from the observed latency
+     * and sheds the requests over the limit. Starts with 20, between 4 and 1000.
+     *
+     * @return A fresh AdaptiveLimiter
+     */
+    public static AdaptiveLimiter adaptiveLimiter() {
+        return new AdaptiveLimiter(20, 4, 1000);
+    }
+
+    /**
+     * Middleware which tunes its concurrency limit from the observed latency
+     * and sheds the requests over the limit.
+     *
+     * @param initialLimit The limit to start with.
+     * @param minLimit     The lowest limit.
+     * @param maxLimit     The highest limit.
+     * @return A fresh AdaptiveLimiter
+     */
+    public static AdaptiveLimiter adaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveLimiter(initialLimit, minLimit, maxLimit);
+    }
 }
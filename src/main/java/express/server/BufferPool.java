@@ -0,0 +1,67 @@
+package express.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Pool of direct ByteBuffers with a fixed size. Direct buffers are expensive
+ * to allocate, so connections and responses borrow them and give them back.
+ */
+final class BufferPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers;
+    private final AtomicInteger pooled;
+    private final int bufferSize;
+    private final int maxPooled;
+
+    /**
+     * @param bufferSize The size of every buffer.
+     * @param maxPooled  The maximal amount of buffers which are kept.
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this.buffers = new ConcurrentLinkedQueue<>();
+        this.pooled = new AtomicInteger();
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return An cleared buffer, a new one if the pool is empty.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer An buffer of this pool, can be null.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The size of every buffer.
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+}
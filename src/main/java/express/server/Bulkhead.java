@@ -0,0 +1,173 @@
+package express.server;
+
+import express.utils.Status;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Limits how many requests of an route run at the same time, so an slow route
+ * cannot take every worker of the executor. Requests over the limit wait in an
+ * bounded queue without holding an worker, if the queue is full they are
+ * answered with the reject status. The same bulkhead can be shared by several
+ * routes or by all routes of an router.
+ * <pre>
+ *     Bulkhead reports = new Bulkhead(4, 16);
+ *     app.get("/export", RouteOptions.of(exportHandler).bulkhead(reports));
+ * </pre>
+ */
+public class Bulkhead {
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+
+    private final ReentrantLock lock;
+    private final ArrayDeque<Waiting> waiting;
+    private final AtomicLong rejected;
+
+    private int inFlight;
+
+    private volatile Status rejectStatus;
+
+    /**
+     * @param maxConcurrent The maximal amount of requests which run at the same time.
+     * @param maxQueued     The maximal amount of requests which wait for an permit.
+     */
+    public Bulkhead(int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("At least one permit and a non-negative queue size are required.");
+        }
+
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.lock = new ReentrantLock();
+        this.waiting = new ArrayDeque<>();
+        this.rejected = new AtomicLong();
+        this.rejectStatus = Status._503;
+    }
+
+    /**
+     * Run an task with an permit. If no permit is free the task is queued and
+     * later run on the executor, the calling thread returns immediately.
+     * The task owns the permit and has to call {@link #release()} when it is done.
+     *
+     * @param task     The task.
+     * @param executor The executor for queued tasks.
+     * @return False if the queue is full, the task will never run.
+     */
+    public boolean submit(Runnable task, Executor executor) {
+        lock.lock();
+        try {
+            if (inFlight >= maxConcurrent) {
+                if (waiting.size() >= maxQueued) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+
+                waiting.add(new Waiting(task, executor));
+                return true;
+            }
+
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+
+        task.run();
+        return true;
+    }
+
+    /**
+     * Return an permit, it is handed over to the oldest waiting task if there is one.
+     */
+    public void release() {
+        Waiting next;
+
+        lock.lock();
+        try {
+            next = waiting.poll();
+
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        next.executor.execute(next.task);
+    }
+
+    /**
+     * @param rejectStatus The status of rejected requests, default is 503.
+     */
+    public void setRejectStatus(Status rejectStatus) {
+        this.rejectStatus = rejectStatus;
+    }
+
+    /**
+     * @return The status of rejected requests.
+     */
+    public Status getRejectStatus() {
+        return rejectStatus;
+    }
+
+    /**
+     * @return The amount of requests which hold an permit.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of requests which wait for an permit.
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of requests which were rejected since the bulkhead was created.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The maximal amount of requests which run at the same time.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return The maximal amount of requests which wait for an permit.
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    private static final class Waiting {
+        private final Runnable task;
+        private final Executor executor;
+
+        private Waiting(Runnable task, Executor executor) {
+            this.task = task;
+            this.executor = executor;
+        }
+    }
+}
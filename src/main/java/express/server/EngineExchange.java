@@ -0,0 +1,22 @@
+package express.server;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Exchange of the {@link NioServerEngine}, which the engine can still
+ * answer itself if the handler cannot run or failed.
+ */
+interface EngineExchange extends Exchange {
+
+    /**
+     * Finish the exchange after the handler failed, an 500 is sent if the headers are still pending.
+     */
+    void abort();
+
+    /**
+     * Answer the request with an empty response.
+     *
+     * @param status The response status, only used if the headers are still pending.
+     */
+    void reject(int status);
+}
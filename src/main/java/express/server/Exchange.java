@@ -0,0 +1,103 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * One request and its response, independent of the server which received it.
+ * Request and Response are only built on this interface, so an other
+ * {@link ServerEngine} can be used without changing any handler.
+ * The headers are a plain multimap, only the Headers class of the JDK is used for it.
+ */
+public interface Exchange {
+
+    /**
+     * @return The request method, e.g. 'GET'.
+     */
+    String getRequestMethod();
+
+    /**
+     * @return The request uri with the raw path and query.
+     */
+    URI getRequestURI();
+
+    /**
+     * @return The protocol, e.g. 'HTTP/1.1'.
+     */
+    String getProtocol();
+
+    /**
+     * @return The request headers.
+     */
+    Headers getRequestHeaders();
+
+    /**
+     * @return The request body.
+     */
+    InputStream getRequestBody();
+
+    /**
+     * @return The address of the client, can be null if the transport has none.
+     */
+    InetSocketAddress getRemoteAddress();
+
+    /**
+     * @return The local address which received the request, can be null if the transport has none.
+     */
+    InetSocketAddress getLocalAddress();
+
+    /**
+     * @return True if the request was received over an encrypted connection.
+     */
+    boolean isSecure();
+
+    /**
+     * @return The response headers, can be changed until the headers are sent.
+     */
+    Headers getResponseHeaders();
+
+    /**
+     * Send the status line and the response headers.
+     *
+     * @param status        The response status.
+     * @param contentLength Greater zero for an body of exactly this length, zero for an body
+     *                      of unknown length and -1 if there is no body at all.
+     * @throws IOException If the headers cannot be sent.
+     */
+    void sendResponseHeaders(int status, long contentLength) throws IOException;
+
+    /**
+     * @return The stream for the response body, closing it finishes the exchange.
+     */
+    OutputStream getResponseBody();
+
+    /**
+     * Finish the exchange, the request body will be discarded.
+     */
+    void close();
+
+    /**
+     * @return True if the client closed the connection before the response was complete,
+     * false if it's still connected or the engine cannot detect it.
+     */
+    default boolean isDisconnected() {
+        return false;
+    }
+
+    /**
+     * Set an listener which is called once if the client closes the connection before the
+     * response is complete. It's called on the thread of the engine and must not block.
+     * Engines which cannot detect it never call the listener.
+     *
+     * @param listener The listener.
+     */
+    default void onDisconnect(Runnable listener) {
+    }
+}
@@ -0,0 +1,16 @@
+package express.server;
+
+/**
+ * @author Simon Reinisch
+ * Interface which an {@link ServerEngine} calls for every request.
+ */
+@FunctionalInterface
+public interface ExchangeHandler {
+
+    /**
+     * Handle an exchange
+     *
+     * @param exchange - The exchange
+     */
+    void handle(Exchange exchange);
+}
@@ -0,0 +1,582 @@
+package express.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * HPACK header compression of HTTP/2 (RFC 7541). Every connection has one
+ * decoder for the request headers and one encoder for the response headers,
+ * both keep an dynamic table which lives as long as the connection.
+ * Header names and values are handled as ISO-8859-1, like the HTTP/1.1 parser does.
+ */
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    // Overhead of every entry in the dynamic table
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    // Huffman code of every octet (RFC 7541, Appendix B), the code of EOS is 30 ones
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+    };
+
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+    };
+
+    private static final int EOS = 256;
+
+    // Decoding tree, two slots per node: positive for the next node, negative for an symbol
+    private static final int[] HUFFMAN_TREE;
+
+    // Index of the first static entry with this name, and of the ones with name and value
+    private static final HashMap<String, Integer> STATIC_NAMES;
+    private static final HashMap<String, Integer> STATIC_FIELDS;
+
+    static {
+        STATIC_NAMES = new HashMap<>();
+        STATIC_FIELDS = new HashMap<>();
+
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+
+            if (!STATIC_TABLE[i][1].isEmpty()) {
+                STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+            }
+        }
+
+        int[] tree = new int[2 * 512];
+        int nodes = 1;
+
+        for (int symbol = 0; symbol <= EOS; symbol++) {
+            int code = symbol == EOS ? 0x3fffffff : HUFFMAN_CODES[symbol];
+            int length = symbol == EOS ? 30 : HUFFMAN_LENGTHS[symbol];
+            int node = 0;
+
+            for (int bit = length - 1; bit > 0; bit--) {
+                int slot = node * 2 + ((code >>> bit) & 1);
+
+                if (tree[slot] == 0) {
+                    tree[slot] = nodes++;
+                }
+
+                node = tree[slot];
+            }
+
+            tree[node * 2 + (code & 1)] = -(symbol + 1);
+        }
+
+        HUFFMAN_TREE = tree;
+    }
+
+    // Don't allow instantiating this class
+    private Hpack() {}
+
+    /**
+     * Decodes the header blocks of one connection.
+     */
+    static final class Decoder {
+
+        private final Table table;
+        private final int maxTableSize;
+
+        /**
+         * @param maxTableSize The table size which was announced to the peer.
+         */
+        Decoder(int maxTableSize) {
+            this.table = new Table(maxTableSize);
+            this.maxTableSize = maxTableSize;
+        }
+
+        /**
+         * Decode an complete header block.
+         *
+         * @param block  The header block.
+         * @param fields Called for every header field in order.
+         * @throws IOException If the block is malformed, the connection cannot continue.
+         */
+        void decode(ByteBuffer block, BiConsumer<String, String> fields) throws IOException {
+            boolean first = true;
+
+            while (block.hasRemaining()) {
+                int b = block.get(block.position()) & 0xff;
+
+                if ((b & 0x80) != 0) {
+                    String[] entry = entry(readInt(block, 7));
+                    fields.accept(entry[0], entry[1]);
+                } else if ((b & 0x40) != 0) {
+                    String[] entry = literal(block, 6);
+                    table.add(entry[0], entry[1]);
+                    fields.accept(entry[0], entry[1]);
+                } else if ((b & 0x20) != 0) {
+
+                    // Size updates are only allowed at the start of an block
+                    if (!first) {
+                        throw new IOException("Table size update after an header field.");
+                    }
+
+                    int size = readInt(block, 5);
+                    if (size > maxTableSize) {
+                        throw new IOException("Table size update above the limit.");
+                    }
+
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    String[] entry = literal(block, 4);
+                    fields.accept(entry[0], entry[1]);
+                }
+
+                first = false;
+            }
+        }
+
+        private String[] literal(ByteBuffer block, int prefix) throws IOException {
+            int index = readInt(block, prefix);
+            String name = index == 0 ? readString(block) : entry(index)[0];
+            return new String[]{name, readString(block)};
+        }
+
+        private String[] entry(int index) throws IOException {
+            if (index <= 0) {
+                throw new IOException("Invalid table index.");
+            }
+
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+
+            String[] entry = table.get(index - STATIC_TABLE.length - 1);
+            if (entry == null) {
+                throw new IOException("Invalid table index.");
+            }
+
+            return entry;
+        }
+
+        private static int readInt(ByteBuffer block, int prefix) throws IOException {
+            int mask = (1 << prefix) - 1;
+            int value = block.get() & mask;
+
+            if (value < mask) {
+                return value;
+            }
+
+            for (int shift = 0; ; shift += 7) {
+                if (!block.hasRemaining() || shift > 21) {
+                    throw new IOException("Invalid integer.");
+                }
+
+                int b = block.get() & 0xff;
+                value += (b & 0x7f) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static String readString(ByteBuffer block) throws IOException {
+            if (!block.hasRemaining()) {
+                throw new IOException("Missing string.");
+            }
+
+            boolean huffman = (block.get(block.position()) & 0x80) != 0;
+            int length = readInt(block, 7);
+
+            if (length > block.remaining()) {
+                throw new IOException("String exceeds the header block.");
+            }
+
+            if (!huffman) {
+                byte[] raw = new byte[length];
+                block.get(raw);
+                return new String(raw, StandardCharsets.ISO_8859_1);
+            }
+
+            StringBuilder sb = new StringBuilder(length * 8 / 5);
+            int node = 0;
+            int bits = 0;
+            boolean ones = true;
+
+            for (int i = 0; i < length; i++) {
+                int b = block.get() & 0xff;
+
+                for (int bit = 7; bit >= 0; bit--) {
+                    int set = (b >>> bit) & 1;
+                    node = HUFFMAN_TREE[node * 2 + set];
+                    bits++;
+                    ones &= set == 1;
+
+                    if (node < 0) {
+                        int symbol = -node - 1;
+                        if (symbol == EOS) {
+                            throw new IOException("EOS in huffman string.");
+                        }
+
+                        sb.append((char) symbol);
+                        node = 0;
+                        bits = 0;
+                        ones = true;
+                    } else if (node == 0) {
+                        throw new IOException("Invalid huffman code.");
+                    }
+                }
+            }
+
+            // The padding is the start of EOS, at most 7 bits
+            if (bits > 7 || !ones) {
+                throw new IOException("Invalid huffman padding.");
+            }
+
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Encodes the header blocks of one connection. Fields which change with
+     * every response are never added to the dynamic table.
+     */
+    static final class Encoder {
+
+        private final Table table;
+        private int pendingSize;
+
+        Encoder() {
+            this.table = new Table(DEFAULT_TABLE_SIZE);
+            this.pendingSize = -1;
+        }
+
+        /**
+         * Apply the table size the peer announced, it's never larger than the default.
+         *
+         * @param size The announced size.
+         */
+        void setMaxTableSize(int size) {
+            int limited = Math.min(size, DEFAULT_TABLE_SIZE);
+
+            if (limited != table.maxSize) {
+                table.setMaxSize(limited);
+                pendingSize = limited;
+            }
+        }
+
+        /**
+         * Start an new header block, an pending table size update is written first.
+         *
+         * @param out The block.
+         */
+        void begin(ByteArrayOutputStream out) {
+            if (pendingSize >= 0) {
+                writeInt(out, 5, 0x20, pendingSize);
+                pendingSize = -1;
+            }
+        }
+
+        /**
+         * @param out   The block.
+         * @param name  The lowercase field name.
+         * @param value The field value.
+         */
+        void encode(ByteArrayOutputStream out, String name, String value) {
+            Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+            if (exact != null) {
+                writeInt(out, 7, 0x80, exact);
+                return;
+            }
+
+            int dynamic = table.indexOf(name, value);
+            if (dynamic >= 0) {
+                writeInt(out, 7, 0x80, STATIC_TABLE.length + 1 + dynamic);
+                return;
+            }
+
+            Integer nameIndex = STATIC_NAMES.get(name);
+            int index = nameIndex != null ? nameIndex : 0;
+
+            if (index == 0) {
+                int dynamicName = table.indexOfName(name);
+
+                if (dynamicName >= 0) {
+                    index = STATIC_TABLE.length + 1 + dynamicName;
+                }
+            }
+
+            if (name.equals("set-cookie") || name.equals("authorization")) {
+                writeInt(out, 4, 0x10, index);
+            } else if (isVolatile(name)) {
+                writeInt(out, 4, 0x00, index);
+            } else {
+                writeInt(out, 6, 0x40, index);
+                table.add(name, value);
+            }
+
+            if (index == 0) {
+                writeString(out, name);
+            }
+
+            writeString(out, value);
+        }
+
+        private static boolean isVolatile(String name) {
+            return name.equals("content-length") || name.equals("date") || name.equals("etag")
+                    || name.equals("last-modified") || name.equals("location") || name.equals("content-range");
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int prefix, int flags, int value) {
+            int mask = (1 << prefix) - 1;
+
+            if (value < mask) {
+                out.write(flags | value);
+                return;
+            }
+
+            out.write(flags | mask);
+            value -= mask;
+
+            while (value >= 0x80) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+
+            out.write(value);
+        }
+
+        private static void writeString(ByteArrayOutputStream out, String value) {
+            long bits = 0;
+            for (int i = 0; i < value.length(); i++) {
+                bits += HUFFMAN_LENGTHS[value.charAt(i) & 0xff];
+            }
+
+            int huffmanLength = (int) ((bits + 7) / 8);
+
+            if (huffmanLength >= value.length()) {
+                writeInt(out, 7, 0x00, value.length());
+
+                for (int i = 0; i < value.length(); i++) {
+                    out.write(value.charAt(i));
+                }
+
+                return;
+            }
+
+            writeInt(out, 7, 0x80, huffmanLength);
+
+            long current = 0;
+            int pending = 0;
+
+            for (int i = 0; i < value.length(); i++) {
+                int symbol = value.charAt(i) & 0xff;
+                current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+                pending += HUFFMAN_LENGTHS[symbol];
+
+                while (pending >= 8) {
+                    pending -= 8;
+                    out.write((int) (current >>> pending));
+                }
+            }
+
+            // Pad with the most significant bits of EOS
+            if (pending > 0) {
+                out.write((int) ((current << (8 - pending)) | (0xff >>> pending)));
+            }
+        }
+    }
+
+    /**
+     * The dynamic table, the newest entry has index zero.
+     */
+    private static final class Table {
+
+        private final ArrayDeque<String[]> entries;
+        private int size;
+        private int maxSize;
+
+        private Table(int maxSize) {
+            this.entries = new ArrayDeque<>();
+            this.maxSize = maxSize;
+        }
+
+        private String[] get(int index) {
+            if (index >= entries.size()) {
+                return null;
+            }
+
+            Iterator<String[]> iterator = entries.iterator();
+            for (int i = 0; i < index; i++) {
+                iterator.next();
+            }
+
+            return iterator.next();
+        }
+
+        private int indexOf(String name, String value) {
+            int i = 0;
+            for (String[] entry : entries) {
+                if (entry[0].equals(name) && entry[1].equals(value)) {
+                    return i;
+                }
+
+                i++;
+            }
+
+            return -1;
+        }
+
+        private int indexOfName(String name) {
+            int i = 0;
+            for (String[] entry : entries) {
+                if (entry[0].equals(name)) {
+                    return i;
+                }
+
+                i++;
+            }
+
+            return -1;
+        }
+
+        private void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+
+            // An entry larger than the table empties it
+            evict(maxSize - entrySize);
+
+            if (entrySize <= maxSize) {
+                entries.addFirst(new String[]{name, value});
+                size += entrySize;
+            }
+        }
+
+        private void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int limit) {
+            while (size > Math.max(limit, 0) && !entries.isEmpty()) {
+                String[] entry = entries.removeLast();
+                size -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+            }
+        }
+    }
+}
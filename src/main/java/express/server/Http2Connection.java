@@ -0,0 +1,1031 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * HTTP/2 over cleartext (h2c) on an {@link NioConnection}, either with prior
+ * knowledge or after an 'Upgrade: h2c' request. Frames are parsed on the thread
+ * of the loop, every stream becomes an {@link Http2Exchange} which is dispatched
+ * like an HTTP/1.1 request once its body is complete, so the streams of one
+ * connection are handled in parallel. Received data is acknowledged right away,
+ * the buffered bodies of all streams share an budget of the connection and an
+ * stream which exceeds it is refused. The response data respects the flow
+ * control windows of the client.
+ */
+final class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Frame types
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // Frame flags
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    // Error codes
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    // Settings
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int FRAME_HEAD = 9;
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int MAX_STREAMS = 100;
+    private static final int MAX_HEADER_BLOCK = 64 * 1024;
+    private static final long MAX_BUFFERED_BODIES = 16L * 1024 * 1024;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+
+    private final NioServerEngine engine;
+    private final NioConnection connection;
+    private final Hpack.Decoder decoder;
+
+    // Header blocks must reach the client in the order they were encoded
+    private final Hpack.Encoder encoder;
+    private final ReentrantLock encoderLock;
+
+    // Guards the send windows, writers wait for an WINDOW_UPDATE of the client
+    private final ReentrantLock flowLock;
+    private final Condition windowOpened;
+    private long sendWindow;
+    private long initialWindow;
+
+    // Only used by the loop thread
+    private final HashMap<Integer, Http2Exchange> streams;
+    private boolean preface;
+    private int lastStreamId;
+    private boolean goingAway;
+    private int continuation;
+    private boolean continuationEnd;
+    private ByteArrayOutputStream headerBlock;
+
+    // Bytes of request bodies which are held by the open streams
+    private long buffered;
+
+    private volatile boolean closed;
+
+    Http2Connection(NioServerEngine engine, NioConnection connection) {
+        this.engine = engine;
+        this.connection = connection;
+        this.decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        this.encoder = new Hpack.Encoder();
+        this.encoderLock = new ReentrantLock();
+        this.flowLock = new ReentrantLock();
+        this.windowOpened = flowLock.newCondition();
+        this.sendWindow = DEFAULT_WINDOW;
+        this.initialWindow = DEFAULT_WINDOW;
+        this.streams = new HashMap<>();
+    }
+
+    /**
+     * Check if the input starts with the connection preface of HTTP/2.
+     *
+     * @param input The input buffer, its content is in [0, position).
+     * @return 1 if it does, 0 if more bytes are needed to tell and -1 if it doesn't.
+     */
+    static int matchPreface(ByteBuffer input) {
+        int available = Math.min(input.position(), PREFACE.length);
+
+        for (int i = 0; i < available; i++) {
+            if (input.get(i) != PREFACE[i]) {
+                return -1;
+            }
+        }
+
+        return available == PREFACE.length ? 1 : 0;
+    }
+
+    /**
+     * Send the settings of the server, the first frame of the connection.
+     *
+     * @param settings The settings from the 'HTTP2-Settings' header of an upgrade, can be null.
+     * @throws IOException If the connection is closed.
+     */
+    void start(byte[] settings) throws IOException {
+        if (settings != null) {
+            try {
+                applySettings(ByteBuffer.wrap(settings));
+            } catch (Http2Error e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(12);
+        payload.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(MAX_STREAMS);
+        payload.putShort((short) SETTINGS_ENABLE_PUSH).putInt(0);
+        payload.flip();
+
+        writeFrame(SETTINGS, 0, 0, payload);
+    }
+
+    /**
+     * Continue the request which asked for the upgrade as stream 1.
+     */
+    void upgrade(String method, URI uri, Headers headers, byte[] body, int size) {
+        headers.remove("Connection");
+        headers.remove("Upgrade");
+        headers.remove("HTTP2-Settings");
+
+        lastStreamId = 1;
+
+        Http2Exchange exchange = new Http2Exchange(this, 1, method, uri, headers, initialWindow());
+        streams.put(1, exchange);
+
+        if (body != null) {
+            exchange.appendBody(ByteBuffer.wrap(body, 0, size), Long.MAX_VALUE);
+            buffered += size;
+        }
+
+        dispatch(exchange);
+    }
+
+    /**
+     * Parse and handle all complete frames, called by the loop after every read.
+     *
+     * @param input The input buffer, its content is in [0, position).
+     */
+    void process(ByteBuffer input) {
+        input.flip();
+
+        try {
+            if (!preface) {
+                int match = matchPreface(input.duplicate().position(input.limit()));
+
+                if (match < 0) {
+                    throw new Http2Error(PROTOCOL_ERROR, "Invalid connection preface.");
+                } else if (match == 0) {
+                    return;
+                }
+
+                input.position(PREFACE.length);
+                preface = true;
+            }
+
+            while (!closed && input.remaining() >= FRAME_HEAD) {
+                int start = input.position();
+                int length = (input.get(start) & 0xff) << 16 | (input.get(start + 1) & 0xff) << 8 | input.get(start + 2) & 0xff;
+
+                if (length > MAX_FRAME_SIZE) {
+                    throw new Http2Error(FRAME_SIZE_ERROR, "Frame exceeds the maximal size.");
+                }
+
+                if (input.remaining() < FRAME_HEAD + length) {
+                    break;
+                }
+
+                int type = input.get(start + 3) & 0xff;
+                int flags = input.get(start + 4) & 0xff;
+                int stream = input.getInt(start + 5) & 0x7fffffff;
+
+                ByteBuffer payload = input.duplicate();
+                payload.limit(start + FRAME_HEAD + length).position(start + FRAME_HEAD);
+                input.position(start + FRAME_HEAD + length);
+
+                frame(type, flags, stream, payload.slice());
+            }
+        } catch (Http2Error e) {
+            goAway(e.code, e.getMessage());
+        } catch (IOException e) {
+            connection.close();
+        } finally {
+            input.compact();
+        }
+    }
+
+    private void frame(int type, int flags, int stream, ByteBuffer payload) throws Http2Error, IOException {
+        if (continuation != 0 && type != CONTINUATION) {
+            throw new Http2Error(PROTOCOL_ERROR, "Expected CONTINUATION frame.");
+        }
+
+        switch (type) {
+            case DATA:
+                data(flags, stream, payload);
+                break;
+            case HEADERS:
+                headers(flags, stream, payload);
+                break;
+            case PRIORITY:
+                if (stream == 0) {
+                    throw new Http2Error(PROTOCOL_ERROR, "PRIORITY on stream 0.");
+                }
+                break;
+            case RST_STREAM:
+                if (stream == 0 || stream > lastStreamId) {
+                    throw new Http2Error(PROTOCOL_ERROR, "RST_STREAM on an idle stream.");
+                }
+
+                if (payload.remaining() != 4) {
+                    throw new Http2Error(FRAME_SIZE_ERROR, "Invalid RST_STREAM frame.");
+                }
+
+                Http2Exchange exchange = streams.remove(stream);
+                if (exchange != null) {
+                    buffered -= exchange.getBodySize();
+                    reset(exchange);
+                }
+                break;
+            case SETTINGS:
+                settings(flags, stream, payload);
+                break;
+            case PUSH_PROMISE:
+                throw new Http2Error(PROTOCOL_ERROR, "Clients cannot push.");
+            case PING:
+                if (stream != 0) {
+                    throw new Http2Error(PROTOCOL_ERROR, "PING on an stream.");
+                }
+
+                if (payload.remaining() != 8) {
+                    throw new Http2Error(FRAME_SIZE_ERROR, "Invalid PING frame.");
+                }
+
+                if ((flags & ACK) == 0) {
+                    writeFrame(PING, ACK, 0, copy(payload));
+                }
+                break;
+            case GOAWAY:
+
+                // The client won't open new streams, the running ones are finished
+                goingAway = true;
+                if (streams.isEmpty()) {
+                    connection.closeWhenFlushed();
+                }
+                break;
+            case WINDOW_UPDATE:
+                if (payload.remaining() != 4) {
+                    throw new Http2Error(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame.");
+                }
+
+                windowUpdate(stream, payload.getInt() & 0x7fffffff);
+                break;
+            case CONTINUATION:
+                if (continuation == 0 || stream != continuation) {
+                    throw new Http2Error(PROTOCOL_ERROR, "Unexpected CONTINUATION frame.");
+                }
+
+                appendHeaderBlock(payload);
+
+                if ((flags & END_HEADERS) != 0) {
+                    headerBlockDone();
+                }
+                break;
+            default:
+
+                // Unknown frame types must be ignored
+                break;
+        }
+    }
+
+    private void data(int flags, int stream, ByteBuffer payload) throws Http2Error, IOException {
+        if (stream == 0) {
+            throw new Http2Error(PROTOCOL_ERROR, "DATA on stream 0.");
+        }
+
+        int length = payload.remaining();
+        removePadding(flags, payload);
+
+        // The connection window is replenished right away, the buffered
+        // bodies of all streams are limited below instead
+        if (length > 0) {
+            writeWindowUpdate(0, length);
+        }
+
+        Http2Exchange exchange = streams.get(stream);
+        if (exchange == null) {
+            if (stream > lastStreamId) {
+                throw new Http2Error(PROTOCOL_ERROR, "DATA on an idle stream.");
+            }
+
+            return;
+        }
+
+        if (exchange.isRequestComplete()) {
+            rst(exchange, STREAM_CLOSED);
+            return;
+        }
+
+        // An stream which doesn't fit into the budget is refused, it was not dispatched yet so the client can retry it
+        if (buffered + payload.remaining() > Math.max(engine.getMaxBodySize(), MAX_BUFFERED_BODIES)) {
+            rst(exchange, REFUSED_STREAM);
+            return;
+        }
+
+        int before = exchange.getBodySize();
+        if (!exchange.appendBody(payload, engine.getMaxBodySize())) {
+            exchange.reject(413);
+            rst(exchange, NO_ERROR);
+            return;
+        }
+
+        buffered += exchange.getBodySize() - before;
+
+        if ((flags & END_STREAM) != 0) {
+            dispatch(exchange);
+        } else if (length > 0) {
+            writeWindowUpdate(stream, length);
+        }
+    }
+
+    private void headers(int flags, int stream, ByteBuffer payload) throws Http2Error {
+        if (stream == 0) {
+            throw new Http2Error(PROTOCOL_ERROR, "HEADERS on stream 0.");
+        }
+
+        removePadding(flags, payload);
+
+        if ((flags & PRIORITY_FLAG) != 0) {
+            if (payload.remaining() < 5) {
+                throw new Http2Error(FRAME_SIZE_ERROR, "Invalid HEADERS frame.");
+            }
+
+            payload.position(payload.position() + 5);
+        }
+
+        headerBlock = new ByteArrayOutputStream(Math.max(payload.remaining(), 64));
+        continuation = stream;
+        continuationEnd = (flags & END_STREAM) != 0;
+        appendHeaderBlock(payload);
+
+        if ((flags & END_HEADERS) != 0) {
+            headerBlockDone();
+        }
+    }
+
+    private void appendHeaderBlock(ByteBuffer payload) throws Http2Error {
+        if (headerBlock.size() + payload.remaining() > MAX_HEADER_BLOCK) {
+            throw new Http2Error(ENHANCE_YOUR_CALM, "Header block too large.");
+        }
+
+        while (payload.hasRemaining()) {
+            headerBlock.write(payload.get());
+        }
+    }
+
+    private void headerBlockDone() throws Http2Error {
+        int stream = continuation;
+        boolean endStream = continuationEnd;
+        byte[] block = headerBlock.toByteArray();
+
+        continuation = 0;
+        headerBlock = null;
+
+        // Every block is decoded, also the ones which are ignored, to keep the table in sync
+        Headers headers = new Headers();
+        Map<String, String> pseudo = new HashMap<>(8);
+        StringBuilder cookies = new StringBuilder();
+
+        try {
+            decoder.decode(ByteBuffer.wrap(block), (name, value) -> {
+                if (name.startsWith(":")) {
+                    pseudo.put(name, value);
+                } else if (name.equals("cookie")) {
+                    cookies.append(cookies.length() > 0 ? "; " : "").append(value);
+                } else {
+                    headers.add(name, value);
+                }
+            });
+        } catch (IOException e) {
+            throw new Http2Error(COMPRESSION_ERROR, e.getMessage());
+        }
+
+        Http2Exchange existing = streams.get(stream);
+        if (existing != null) {
+
+            // Trailers, their fields are dropped
+            if (!endStream || existing.isRequestComplete()) {
+                rst(existing, PROTOCOL_ERROR);
+            } else {
+                dispatch(existing);
+            }
+
+            return;
+        }
+
+        if (stream <= lastStreamId || stream % 2 == 0) {
+            throw new Http2Error(PROTOCOL_ERROR, "Invalid stream id.");
+        }
+
+        lastStreamId = stream;
+
+        if (goingAway) {
+            return;
+        }
+
+        if (streams.size() >= MAX_STREAMS) {
+            writeRst(stream, REFUSED_STREAM);
+            return;
+        }
+
+        String method = pseudo.get(":method");
+        String path = pseudo.get(":path");
+        String authority = pseudo.get(":authority");
+
+        URI uri;
+        try {
+            uri = method == null || path == null ? null : new URI(path);
+        } catch (URISyntaxException e) {
+            uri = null;
+        }
+
+        if (uri == null) {
+            writeRst(stream, PROTOCOL_ERROR);
+            return;
+        }
+
+        if (cookies.length() > 0) {
+            headers.set("Cookie", cookies.toString());
+        }
+
+        // Virtual hosts are matched by the 'Host' header
+        if (authority != null && !headers.containsKey("Host")) {
+            headers.set("Host", authority);
+        }
+
+        Http2Exchange exchange = new Http2Exchange(this, stream, method, uri, headers, initialWindow());
+        streams.put(stream, exchange);
+
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null && !contentLength.isEmpty() && isTooLarge(contentLength)) {
+            exchange.reject(413);
+            rst(exchange, NO_ERROR);
+            return;
+        }
+
+        if (endStream) {
+            dispatch(exchange);
+        }
+    }
+
+    private boolean isTooLarge(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim()) > engine.getMaxBodySize();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void settings(int flags, int stream, ByteBuffer payload) throws Http2Error, IOException {
+        if (stream != 0) {
+            throw new Http2Error(PROTOCOL_ERROR, "SETTINGS on an stream.");
+        }
+
+        if ((flags & ACK) != 0) {
+            if (payload.hasRemaining()) {
+                throw new Http2Error(FRAME_SIZE_ERROR, "SETTINGS ack with payload.");
+            }
+
+            return;
+        }
+
+        if (payload.remaining() % 6 != 0) {
+            throw new Http2Error(FRAME_SIZE_ERROR, "Invalid SETTINGS frame.");
+        }
+
+        applySettings(payload);
+        writeFrame(SETTINGS, ACK, 0, ByteBuffer.allocate(0));
+    }
+
+    private void applySettings(ByteBuffer payload) throws Http2Error {
+        while (payload.remaining() >= 6) {
+            int id = payload.getShort() & 0xffff;
+            long value = payload.getInt() & 0xffffffffL;
+
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoderLock.lock();
+                    try {
+                        encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    } finally {
+                        encoderLock.unlock();
+                    }
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        throw new Http2Error(PROTOCOL_ERROR, "Invalid ENABLE_PUSH.");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) {
+                        throw new Http2Error(FLOW_CONTROL_ERROR, "Invalid INITIAL_WINDOW_SIZE.");
+                    }
+
+                    setInitialWindow(value);
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+
+                    // Larger frames are allowed, but the frames of the server never exceed the default
+                    if (value < MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new Http2Error(PROTOCOL_ERROR, "Invalid MAX_FRAME_SIZE.");
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void setInitialWindow(long value) throws Http2Error {
+        List<Http2Exchange> ended;
+
+        flowLock.lock();
+        try {
+            long delta = value - initialWindow;
+            initialWindow = value;
+
+            for (Http2Exchange exchange : streams.values()) {
+                exchange.window += delta;
+
+                if (exchange.window > MAX_WINDOW) {
+                    throw new Http2Error(FLOW_CONTROL_ERROR, "Stream window too large.");
+                }
+            }
+
+            ended = drainDeferred();
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+
+        ended.forEach(this::ended);
+    }
+
+    private long initialWindow() {
+        flowLock.lock();
+        try {
+            return initialWindow;
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void windowUpdate(int stream, int increment) throws Http2Error, IOException {
+        if (increment == 0) {
+            if (stream == 0) {
+                throw new Http2Error(PROTOCOL_ERROR, "WINDOW_UPDATE of zero.");
+            }
+
+            Http2Exchange exchange = streams.get(stream);
+            if (exchange != null) {
+                rst(exchange, PROTOCOL_ERROR);
+            }
+
+            return;
+        }
+
+        Http2Exchange overflow = null;
+        List<Http2Exchange> ended;
+
+        flowLock.lock();
+        try {
+            if (stream == 0) {
+                sendWindow += increment;
+
+                if (sendWindow > MAX_WINDOW) {
+                    throw new Http2Error(FLOW_CONTROL_ERROR, "Connection window too large.");
+                }
+            } else {
+                Http2Exchange exchange = streams.get(stream);
+
+                if (exchange != null) {
+                    exchange.window += increment;
+
+                    if (exchange.window > MAX_WINDOW) {
+                        overflow = exchange;
+                    }
+                }
+            }
+
+            ended = drainDeferred();
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+
+        ended.forEach(this::ended);
+
+        if (overflow != null) {
+            rst(overflow, FLOW_CONTROL_ERROR);
+        }
+    }
+
+    /**
+     * Strip the padding of an DATA or HEADERS frame.
+     */
+    private static void removePadding(int flags, ByteBuffer payload) throws Http2Error {
+        if ((flags & PADDED) == 0) {
+            return;
+        }
+
+        if (!payload.hasRemaining()) {
+            throw new Http2Error(FRAME_SIZE_ERROR, "Missing pad length.");
+        }
+
+        int padding = payload.get() & 0xff;
+        if (padding > payload.remaining()) {
+            throw new Http2Error(PROTOCOL_ERROR, "Padding exceeds the frame.");
+        }
+
+        payload.limit(payload.limit() - padding);
+    }
+
+    private void dispatch(Http2Exchange exchange) {
+        exchange.requestComplete();
+        engine.dispatch(exchange);
+    }
+
+    /**
+     * Write the response headers of an stream.
+     *
+     * @param exchange  The exchange of the stream.
+     * @param status    The response status.
+     * @param headers   The response headers.
+     * @param endStream True if the response has no body.
+     * @throws IOException If the stream was reset or the connection is closed.
+     */
+    void writeHeaders(Http2Exchange exchange, int status, Headers headers, boolean endStream) throws IOException {
+        encoderLock.lock();
+        try {
+            if (closed || exchange.isReset()) {
+                throw new IOException("Stream was reset.");
+            }
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+            encoder.begin(block);
+            encoder.encode(block, ":status", Integer.toString(status));
+
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                String name = entry.getKey().toLowerCase(Locale.ROOT);
+
+                if (isConnectionSpecific(name)) {
+                    continue;
+                }
+
+                for (String value : entry.getValue()) {
+                    encoder.encode(block, name, value);
+                }
+            }
+
+            // An large block is split into CONTINUATION frames, all written at once
+            byte[] bytes = block.toByteArray();
+            int frames = Math.max(1, (bytes.length + MAX_FRAME_SIZE - 1) / MAX_FRAME_SIZE);
+            ByteBuffer[] buffers = new ByteBuffer[frames * 2];
+
+            for (int i = 0; i < frames; i++) {
+                int offset = i * MAX_FRAME_SIZE;
+                int length = Math.min(MAX_FRAME_SIZE, bytes.length - offset);
+                int flags = (i == frames - 1 ? END_HEADERS : 0) | (i == 0 && endStream ? END_STREAM : 0);
+
+                buffers[i * 2] = frameHead(length, i == 0 ? HEADERS : CONTINUATION, flags, exchange.getStreamId());
+                buffers[i * 2 + 1] = ByteBuffer.wrap(bytes, offset, length);
+            }
+
+            connection.enqueue(buffers, buffers.length);
+        } finally {
+            encoderLock.unlock();
+        }
+
+        connection.awaitDrained();
+
+        if (endStream) {
+            ended(exchange);
+        }
+    }
+
+    /**
+     * Write response data of an stream, as much as the flow control windows allow.
+     * The calling thread waits until the client opens the windows, the loop itself
+     * never waits, what doesn't fit is sent on the next WINDOW_UPDATE.
+     *
+     * @param exchange  The exchange of the stream.
+     * @param data      The data, can be reused when this method returns.
+     * @param endStream True if this is the end of the response.
+     * @throws IOException If the stream was reset or the connection is closed.
+     */
+    void writeData(Http2Exchange exchange, ByteBuffer data, boolean endStream) throws IOException {
+        flowLock.lock();
+        try {
+            while (true) {
+                if (closed || exchange.isReset()) {
+                    throw new IOException("Stream was reset.");
+                }
+
+                if (exchange.deferred == null && sendData(exchange, data, endStream)) {
+                    break;
+                }
+
+                if (connection.inLoop()) {
+                    defer(exchange, data, endStream);
+                    return;
+                }
+
+                try {
+                    windowOpened.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the flow control window.");
+                }
+            }
+        } finally {
+            flowLock.unlock();
+        }
+
+        connection.awaitDrained();
+
+        if (endStream) {
+            ended(exchange);
+        }
+    }
+
+    /**
+     * Send data frames while the windows allow it, must hold the flow lock.
+     *
+     * @return True if all data and the end of the stream were sent.
+     */
+    private boolean sendData(Http2Exchange exchange, ByteBuffer data, boolean endStream) throws IOException {
+        while (data.hasRemaining()) {
+            int length = (int) Math.min(Math.min(data.remaining(), MAX_FRAME_SIZE), Math.min(sendWindow, exchange.window));
+
+            if (length <= 0) {
+                return false;
+            }
+
+            ByteBuffer chunk = data.slice();
+            chunk.limit(length);
+            data.position(data.position() + length);
+
+            sendWindow -= length;
+            exchange.window -= length;
+
+            boolean last = endStream && !data.hasRemaining();
+            connection.enqueue(new ByteBuffer[]{frameHead(length, DATA, last ? END_STREAM : 0, exchange.getStreamId()), chunk}, 2);
+
+            if (last) {
+                return true;
+            }
+        }
+
+        if (endStream) {
+            connection.enqueue(new ByteBuffer[]{frameHead(0, DATA, END_STREAM, exchange.getStreamId())}, 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Keep data which was written by the loop until the windows are open again, must hold the flow lock.
+     */
+    private void defer(Http2Exchange exchange, ByteBuffer data, boolean endStream) {
+        if (exchange.deferred == null) {
+            exchange.deferred = new ArrayDeque<>();
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data).flip();
+
+        exchange.deferred.add(copy);
+        exchange.deferredEnd |= endStream;
+    }
+
+    /**
+     * Send the deferred data of all streams, must hold the flow lock.
+     *
+     * @return The streams which sent their end.
+     */
+    private List<Http2Exchange> drainDeferred() {
+        List<Http2Exchange> ended = new ArrayList<>(0);
+
+        for (Http2Exchange exchange : streams.values()) {
+            ArrayDeque<ByteBuffer> deferred = exchange.deferred;
+
+            try {
+                while (deferred != null && !deferred.isEmpty()) {
+                    boolean last = deferred.size() == 1;
+
+                    if (!sendData(exchange, deferred.peek(), last && exchange.deferredEnd)) {
+                        break;
+                    }
+
+                    deferred.poll();
+                }
+            } catch (IOException e) {
+                return ended;
+            }
+
+            if (deferred != null && deferred.isEmpty()) {
+                exchange.deferred = null;
+
+                if (exchange.deferredEnd) {
+                    ended.add(exchange);
+                }
+            }
+        }
+
+        return ended;
+    }
+
+    /**
+     * Reset an stream whose response can't be completed.
+     *
+     * @param exchange The exchange of the stream.
+     * @param code     The error code.
+     */
+    void rst(Http2Exchange exchange, int code) {
+        reset(exchange);
+        writeRst(exchange.getStreamId(), code);
+        ended(exchange);
+    }
+
+    /**
+     * Reset the stream after an response whose body is incomplete.
+     *
+     * @param exchange The exchange of the stream.
+     */
+    void abort(Http2Exchange exchange) {
+        rst(exchange, INTERNAL_ERROR);
+    }
+
+    private void writeRst(int stream, int code) {
+        ByteBuffer payload = ByteBuffer.allocate(4).putInt(code);
+        payload.flip();
+
+        try {
+            writeFrame(RST_STREAM, 0, stream, payload);
+        } catch (IOException ignore) { }
+    }
+
+    private void reset(Http2Exchange exchange) {
+        exchange.onReset();
+
+        flowLock.lock();
+        try {
+            exchange.deferred = null;
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void writeWindowUpdate(int stream, int increment) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(4).putInt(increment);
+        payload.flip();
+        writeFrame(WINDOW_UPDATE, 0, stream, payload);
+    }
+
+    /**
+     * The response of an stream is complete, it doesn't count as open stream anymore.
+     */
+    private void ended(Http2Exchange exchange) {
+        connection.execute(() -> {
+            if (streams.remove(exchange.getStreamId(), exchange)) {
+                buffered -= exchange.getBodySize();
+            }
+
+            if (goingAway && streams.isEmpty()) {
+                connection.closeWhenFlushed();
+            }
+        });
+    }
+
+    /**
+     * Tell the client that the connection will be closed and close it.
+     *
+     * @param code    The error code, NO_ERROR for an graceful shutdown.
+     * @param message The reason.
+     */
+    private void goAway(int code, String message) {
+        if (code != NO_ERROR) {
+            engine.getLogger().log(Level.FINE, "HTTP/2 connection error: " + message);
+        }
+
+        goingAway = true;
+
+        ByteBuffer payload = ByteBuffer.allocate(8).putInt(lastStreamId).putInt(code);
+        payload.flip();
+
+        try {
+            writeFrame(GOAWAY, 0, 0, payload);
+        } catch (IOException ignore) { }
+
+        connection.closeWhenFlushed();
+    }
+
+    /**
+     * Close the connection gracefully, used when it was idle for too long.
+     */
+    void shutdown() {
+        goAway(NO_ERROR, "Idle");
+    }
+
+    /**
+     * Called by the connection when it is closed, all running streams are reset.
+     */
+    void onClose() {
+        closed = true;
+
+        for (Http2Exchange exchange : new ArrayList<>(streams.values())) {
+            reset(exchange);
+        }
+
+        streams.clear();
+        buffered = 0;
+    }
+
+    /**
+     * @return True if no stream is open.
+     */
+    boolean isIdle() {
+        return streams.isEmpty();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    NioConnection getConnection() {
+        return connection;
+    }
+
+    NioServerEngine getEngine() {
+        return engine;
+    }
+
+    private void writeFrame(int type, int flags, int stream, ByteBuffer payload) throws IOException {
+        connection.write(new ByteBuffer[]{frameHead(payload.remaining(), type, flags, stream), payload}, 2);
+    }
+
+    private static ByteBuffer frameHead(int length, int type, int flags, int stream) {
+        ByteBuffer head = ByteBuffer.allocate(FRAME_HEAD);
+        head.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        head.put((byte) type).put((byte) flags).putInt(stream);
+        head.flip();
+        return head;
+    }
+
+    private static ByteBuffer copy(ByteBuffer payload) {
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+        copy.put(payload).flip();
+        return copy;
+    }
+
+    private static boolean isConnectionSpecific(String name) {
+        return name.equals("connection") || name.equals("keep-alive") || name.equals("transfer-encoding")
+                || name.equals("upgrade") || name.equals("proxy-connection");
+    }
+
+    /**
+     * An error which ends the whole connection.
+     */
+    private static final class Http2Error extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        private Http2Error(int code, String message) {
+            super(message, null, false, false);
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Exchange of one HTTP/2 stream. Like on HTTP/1.1 the request is completely
+ * read before the handler runs. The response headers are sent right away as
+ * HEADERS frame, the body is collected in an pooled buffer and sent as DATA
+ * frames when it is full or flushed.
+ */
+final class Http2Exchange implements EngineExchange {
+
+    private final Http2Connection connection;
+    private final int streamId;
+    private final String method;
+    private final URI uri;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders;
+    private final ResponseBody responseBody;
+    private final ReentrantLock lock;
+    private final AtomicReference<Runnable> disconnectListener;
+    private final AtomicBoolean finished;
+
+    // Request body, only used by the loop until the exchange is dispatched
+    private byte[] body;
+    private int size;
+    private volatile boolean complete;
+    private volatile boolean dispatched;
+
+    // Send window and data the loop couldn't send yet, guarded by the flow lock of the connection
+    long window;
+    ArrayDeque<ByteBuffer> deferred;
+    boolean deferredEnd;
+
+    private volatile boolean reset;
+    private volatile boolean headersSent;
+    private boolean noBody;
+    private long remaining;
+
+    Http2Exchange(Http2Connection connection, int streamId, String method, URI uri, Headers requestHeaders, long window) {
+        this.connection = connection;
+        this.streamId = streamId;
+        this.method = method;
+        this.uri = uri;
+        this.requestHeaders = requestHeaders;
+        this.responseHeaders = new Headers();
+        this.responseBody = new ResponseBody();
+        this.lock = new ReentrantLock();
+        this.disconnectListener = new AtomicReference<>();
+        this.finished = new AtomicBoolean();
+        this.window = window;
+        this.remaining = -1;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/2.0";
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return body == null ? new ByteArrayInputStream(new byte[0]) : new ByteArrayInputStream(body, 0, size);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.getConnection().getRemoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.getConnection().getLocalAddress();
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public boolean isDisconnected() {
+        return reset || connection.isClosed();
+    }
+
+    @Override
+    public void onDisconnect(Runnable listener) {
+        disconnectListener.set(listener);
+
+        // The stream can already be gone
+        if (isDisconnected()) {
+            disconnected();
+        }
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long contentLength) throws IOException {
+        lock.lock();
+        try {
+            if (headersSent) {
+                throw new IOException("Headers already sent.");
+            }
+
+            boolean bodyless = status < 200 || status == 204 || status == 304;
+            boolean isHead = method.equals("HEAD");
+
+            if (isHead || bodyless || contentLength < 0) {
+                noBody = true;
+
+                if (contentLength > 0 && !bodyless) {
+                    responseHeaders.set("Content-Length", Long.toString(contentLength));
+                } else if (contentLength < 0 && !bodyless && !isHead) {
+                    responseHeaders.set("Content-Length", "0");
+                }
+            } else if (contentLength > 0) {
+                remaining = contentLength;
+                responseHeaders.set("Content-Length", Long.toString(contentLength));
+            }
+
+            if (!responseHeaders.containsKey("Date")) {
+                responseHeaders.set("Date", NioExchange.currentDate());
+            }
+
+            headersSent = true;
+            connection.writeHeaders(this, status, responseHeaders, noBody);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void close() {
+        try {
+            responseBody.close();
+        } catch (IOException ignore) { }
+    }
+
+    @Override
+    public void abort() {
+        reject(500);
+    }
+
+    @Override
+    public void reject(int status) {
+        if (responseBody.closed) {
+            return;
+        }
+
+        if (!headersSent) {
+            responseHeaders.clear();
+
+            try {
+                sendResponseHeaders(status, -1);
+            } catch (IOException ignore) { }
+        }
+
+        close();
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Add received data to the request body, called by the loop.
+     *
+     * @return False if the body gets larger than allowed.
+     */
+    boolean appendBody(ByteBuffer data, long maxBodySize) {
+        int length = data.remaining();
+
+        if (size + (long) length > maxBodySize) {
+            return false;
+        }
+
+        if (body == null || body.length < size + length) {
+            byte[] grown = new byte[Math.max(size + length, body == null ? 1024 : body.length * 2)];
+
+            if (body != null) {
+                System.arraycopy(body, 0, grown, 0, size);
+            }
+
+            body = grown;
+        }
+
+        data.get(body, size, length);
+        size += length;
+        return true;
+    }
+
+    /**
+     * The client sent the end of the stream, the exchange is about to be dispatched.
+     */
+    void requestComplete() {
+        complete = true;
+        dispatched = true;
+    }
+
+    /**
+     * @return The amount of buffered request body bytes, called by the loop.
+     */
+    int getBodySize() {
+        return size;
+    }
+
+    boolean isRequestComplete() {
+        return complete;
+    }
+
+    /**
+     * The client reset the stream or the connection was closed.
+     */
+    void onReset() {
+        reset = true;
+        disconnected();
+    }
+
+    boolean isReset() {
+        return reset;
+    }
+
+    private void disconnected() {
+        Runnable listener = disconnectListener.getAndSet(null);
+
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Called once when the response is finished.
+     */
+    private void finish() {
+        if (finished.compareAndSet(false, true)) {
+            disconnectListener.set(null);
+
+            if (dispatched) {
+                connection.getEngine().finished();
+            }
+        }
+    }
+
+    /**
+     * Collects the body in an pooled buffer, which is sent as DATA frame when it is full or flushed.
+     */
+    private final class ResponseBody extends OutputStream {
+
+        private ByteBuffer body;
+        private volatile boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("Stream is closed.");
+                }
+
+                if (!headersSent) {
+                    throw new IOException("Headers not sent.");
+                }
+
+                if (noBody) {
+                    return;
+                }
+
+                if (remaining >= 0) {
+                    if (len > remaining) {
+                        throw new IOException("Too many bytes for the content length.");
+                    }
+
+                    remaining -= len;
+                }
+
+                while (len > 0) {
+                    if (body == null) {
+                        body = connection.getConnection().getPool().acquire();
+                    }
+
+                    int n = Math.min(len, body.remaining());
+                    body.put(b, off, n);
+                    off += n;
+                    len -= n;
+
+                    if (!body.hasRemaining()) {
+                        send(false);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                if (!closed && headersSent && !noBody) {
+                    send(false);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+
+                try {
+                    if (!headersSent) {
+                        throw new IOException("Headers not sent.");
+                    }
+
+                    if (noBody) {
+                        return;
+                    }
+
+                    // An incomplete body must not look like an complete one
+                    if (remaining > 0) {
+                        connection.abort(Http2Exchange.this);
+                        return;
+                    }
+
+                    send(true);
+                } finally {
+                    connection.getConnection().getPool().release(body);
+                    body = null;
+                    finish();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void send(boolean last) throws IOException {
+            boolean data = body != null && body.position() > 0;
+
+            if (!data && !last) {
+                return;
+            }
+
+            ByteBuffer buffer = data ? body.flip() : ByteBuffer.allocate(0);
+
+            try {
+                connection.writeData(Http2Exchange.this, buffer, last);
+            } finally {
+                if (data) {
+                    body.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Exchange of the JDK http server.
+ */
+public final class JdkExchange implements Exchange {
+
+    private final HttpExchange httpExchange;
+
+    public JdkExchange(HttpExchange httpExchange) {
+        this.httpExchange = httpExchange;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return httpExchange.getRequestMethod();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return httpExchange.getRequestURI();
+    }
+
+    @Override
+    public String getProtocol() {
+        return httpExchange.getProtocol();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return httpExchange.getRequestHeaders();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return httpExchange.getRequestBody();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return httpExchange.getRemoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return httpExchange.getLocalAddress();
+    }
+
+    @Override
+    public boolean isSecure() {
+        return httpExchange instanceof HttpsExchange;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return httpExchange.getResponseHeaders();
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long contentLength) throws IOException {
+        httpExchange.sendResponseHeaders(status, contentLength);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return httpExchange.getResponseBody();
+    }
+
+    @Override
+    public void close() {
+        httpExchange.close();
+    }
+
+    /**
+     * @return The exchange of the JDK http server.
+     */
+    public HttpExchange getHttpExchange() {
+        return httpExchange;
+    }
+}
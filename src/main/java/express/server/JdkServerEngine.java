@@ -0,0 +1,81 @@
+package express.server;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Engine which uses the <code>com.sun.net.httpserver</code> server of the JDK,
+ * with an HttpsConfigurator it runs an HttpsServer.
+ */
+public class JdkServerEngine implements ServerEngine {
+
+    private final HttpsConfigurator httpsConfigurator;
+    private volatile HttpServer httpServer;
+
+    public JdkServerEngine() {
+        this(null);
+    }
+
+    /**
+     * @param httpsConfigurator The HttpsConfigurator for https, null for http.
+     */
+    public JdkServerEngine(HttpsConfigurator httpsConfigurator) {
+        this.httpsConfigurator = httpsConfigurator;
+    }
+
+    @Override
+    public void start(InetSocketAddress address, Executor executor, ExchangeHandler handler) throws IOException {
+        HttpServer httpServer;
+
+        if (httpsConfigurator != null) {
+
+            // Create https server
+            httpServer = HttpsServer.create(address, 0);
+            ((HttpsServer) httpServer).setHttpsConfigurator(httpsConfigurator);
+        } else {
+
+            // Create http server
+            httpServer = HttpServer.create(address, 0);
+        }
+
+        // Set thread executor
+        httpServer.setExecutor(executor);
+
+        // Create handler for all contexts
+        httpServer.createContext("/", exchange -> handler.handle(new JdkExchange(exchange)));
+
+        // Start server
+        httpServer.start();
+        this.httpServer = httpServer;
+    }
+
+    @Override
+    public void stop(int delay) {
+        HttpServer httpServer = this.httpServer;
+
+        if (httpServer != null) {
+            httpServer.stop(delay);
+            this.httpServer = null;
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        HttpServer httpServer = this.httpServer;
+        return httpServer == null ? null : httpServer.getAddress();
+    }
+
+    /**
+     * @return The running server, null if the engine isn't started.
+     */
+    public HttpServer getHttpServer() {
+        return httpServer;
+    }
+}
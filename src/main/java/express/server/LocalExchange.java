@@ -0,0 +1,335 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Exchange which never touches an socket. The request is built in memory, the response
+ * is collected in memory and the result completes when the response is finished.
+ * It runs through the same middleware and routes as an request of an engine:
+ * <pre>
+ *     LocalExchange exchange = app.inject(new LocalExchange("POST", "/users")
+ *             .header("Content-Type", "application/json")
+ *             .body("{\"name\": \"john\"}")).join();
+ *
+ *     exchange.getStatus();       // 201
+ *     exchange.getResponseText(); // The body as string
+ * </pre>
+ * An exchange can only be sent once.
+ */
+public final class LocalExchange implements Exchange {
+
+    private final String method;
+    private final URI uri;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders;
+    private final ResponseBody responseBody;
+    private final CompletableFuture<LocalExchange> result;
+    private final AtomicReference<Runnable> disconnectListener;
+
+    private byte[] body;
+    private InetSocketAddress remoteAddress;
+
+    private volatile int status;
+    private volatile boolean disconnected;
+
+    {
+        // Initialize with default data
+        this.requestHeaders = new Headers();
+        this.responseHeaders = new Headers();
+        this.responseBody = new ResponseBody();
+        this.result = new CompletableFuture<>();
+        this.disconnectListener = new AtomicReference<>();
+        this.body = new byte[0];
+        this.requestHeaders.set("Host", "localhost");
+    }
+
+    /**
+     * @param method The request method, e.g. 'GET'.
+     * @param uri    The path with an optional query, e.g. '/users?page=2'.
+     */
+    public LocalExchange(String method, String uri) {
+        if (method == null || method.isEmpty()) {
+            throw new IllegalArgumentException("Method cannot be empty.");
+        }
+
+        this.method = method.toUpperCase();
+        this.uri = URI.create(uri);
+    }
+
+    /**
+     * Set an request header, an previous value of the same header is replaced.
+     *
+     * @param name   The header name.
+     * @param values The values.
+     * @return This exchange.
+     */
+    public LocalExchange header(String name, String... values) {
+        requestHeaders.put(name, Arrays.asList(values));
+        return this;
+    }
+
+    /**
+     * Set the request body and its 'Content-Length'.
+     *
+     * @param body The body.
+     * @return This exchange.
+     */
+    public LocalExchange body(byte[] body) {
+        this.body = body;
+        requestHeaders.set("Content-Length", Integer.toString(body.length));
+        return this;
+    }
+
+    /**
+     * Set the request body encoded as UTF-8.
+     *
+     * @param body The body.
+     * @return This exchange.
+     */
+    public LocalExchange body(String body) {
+        return body(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param remoteAddress The address the request appears to come from, none by default.
+     * @return This exchange.
+     */
+    public LocalExchange remoteAddress(InetSocketAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+        return this;
+    }
+
+    /**
+     * Simulate an client which closes the connection before the response is complete.
+     * The request is cancelled and the result completes with an CancellationException.
+     */
+    public void disconnect() {
+        if (result.isDone()) {
+            return;
+        }
+
+        disconnected = true;
+        Runnable listener = disconnectListener.getAndSet(null);
+
+        if (listener != null) {
+            listener.run();
+        }
+
+        result.cancel(false);
+    }
+
+    /**
+     * @return The result, completes with this exchange when the response is finished.
+     */
+    public CompletableFuture<LocalExchange> getResult() {
+        return result;
+    }
+
+    /**
+     * @return The response status, zero if no headers were sent yet.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The response body which was written so far.
+     */
+    public byte[] getResponseBytes() {
+        return responseBody.toByteArray();
+    }
+
+    /**
+     * @return The response body decoded as UTF-8.
+     */
+    public String getResponseText() {
+        return new String(getResponseBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    @Override
+    public void onDisconnect(Runnable listener) {
+        disconnectListener.set(listener);
+
+        // The client can already be gone
+        if (disconnected && disconnectListener.getAndSet(null) != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long contentLength) throws IOException {
+        responseBody.start(status, contentLength);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void close() {
+        try {
+            responseBody.close();
+        } catch (IOException ignore) { }
+    }
+
+    /**
+     * Collects the response body, the length is checked like on an real connection.
+     */
+    private final class ResponseBody extends OutputStream {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private boolean headersSent;
+        private boolean noBody;
+        private boolean closed;
+        private long remaining = -1;
+
+        synchronized void start(int status, long contentLength) throws IOException {
+            if (headersSent) {
+                throw new IOException("Headers already sent.");
+            }
+
+            boolean bodyless = status < 200 || status == 204 || status == 304;
+            noBody = bodyless || contentLength < 0 || method.equals("HEAD");
+
+            if (contentLength > 0 && !bodyless) {
+                responseHeaders.set("Content-Length", Long.toString(contentLength));
+                remaining = method.equals("HEAD") ? -1 : contentLength;
+            } else if (contentLength < 0 && !bodyless && !method.equals("HEAD")) {
+                responseHeaders.set("Content-Length", "0");
+            }
+
+            if (!responseHeaders.containsKey("Date")) {
+                responseHeaders.set("Date", NioExchange.currentDate());
+            }
+
+            LocalExchange.this.status = status;
+            headersSent = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed.");
+            }
+
+            if (!headersSent) {
+                throw new IOException("Headers not sent.");
+            }
+
+            // Like on an closed connection the rest of the response goes nowhere
+            if (noBody || disconnected) {
+                return;
+            }
+
+            if (remaining >= 0) {
+                if (len > remaining) {
+                    throw new IOException("Too many bytes for the content length.");
+                }
+
+                remaining -= len;
+            }
+
+            buffer.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+
+                if (!headersSent) {
+                    result.completeExceptionally(new IOException("Exchange was closed without an response."));
+                    return;
+                }
+
+                // An incomplete body must not look like an complete one
+                if (remaining > 0) {
+                    result.completeExceptionally(new IOException("Response is " + remaining + " bytes shorter than its content length."));
+                    return;
+                }
+            }
+
+            // Complete outside of the lock, dependent stages run on this thread
+            result.complete(LocalExchange.this);
+        }
+
+        synchronized byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+}
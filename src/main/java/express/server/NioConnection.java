@@ -0,0 +1,936 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * One HTTP/1.1 connection of the {@link NioServerEngine}. Reading and parsing
+ * happens on the thread of the loop, directly from an pooled direct buffer.
+ * Only one exchange runs at a time, pipelined requests stay in the buffer until
+ * the previous response is finished. Responses are written by the thread which
+ * produces them, whatever the socket doesn't take is queued and written by the loop.
+ * An connection which starts with the HTTP/2 preface or asks for an upgrade to h2c
+ * is handed over to an {@link Http2Connection}.
+ */
+final class NioConnection {
+
+    // Writer block above the high watermark until the loop drained the queue below the low watermark
+    private static final long HIGH_WATERMARK = 256 * 1024;
+    private static final long LOW_WATERMARK = 64 * 1024;
+
+    private static final int MAX_LINE = 8 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private final NioServerEngine engine;
+    private final NioLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+
+    // Only used by the loop thread, the content is kept in [0, position)
+    private ByteBuffer input;
+    private int scanned;
+    private PendingRequest pending;
+    private boolean active;
+    private boolean closing;
+    private boolean served;
+    private boolean peerClosed;
+    private long lastActivity;
+    private Http2Connection http2;
+
+    private volatile boolean closed;
+    private final AtomicReference<Runnable> disconnectListener;
+
+    // No monitors, an blocked writer must not pin an virtual thread
+    private final ReentrantLock writeLock;
+    private final Condition drained;
+    private final ArrayDeque<ByteBuffer> queue;
+    private long queued;
+    private boolean closeWhenFlushed;
+
+    NioConnection(NioServerEngine engine, NioLoop loop, SocketChannel channel, SelectionKey key) throws IOException {
+        this.engine = engine;
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.remoteAddress = toInet(channel.getRemoteAddress());
+        this.localAddress = toInet(channel.getLocalAddress());
+        this.input = engine.getPool().acquire();
+        this.lastActivity = System.currentTimeMillis();
+        this.writeLock = new ReentrantLock();
+        this.drained = writeLock.newCondition();
+        this.disconnectListener = new AtomicReference<>();
+        this.queue = new ArrayDeque<>();
+    }
+
+    /**
+     * Read what's available and parse it, called by the loop.
+     */
+    void onReadable() {
+        if (!input.hasRemaining()) {
+            interest(SelectionKey.OP_READ, false);
+            return;
+        }
+
+        int read;
+        try {
+            read = channel.read(input);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        if (read == -1) {
+            peerClosed = true;
+
+            // An half-closed client still waits for the response, only an failing socket is an disconnect
+            if (active) {
+                interest(SelectionKey.OP_READ, false);
+            } else {
+                close();
+            }
+
+            return;
+        }
+
+        lastActivity = System.currentTimeMillis();
+
+        if (http2 != null) {
+            http2.process(input);
+            return;
+        }
+
+        if (!active) {
+            process();
+        }
+
+        // Pipelined requests wait in the buffer, stop reading if it's full
+        if (!closed && active && !input.hasRemaining()) {
+            interest(SelectionKey.OP_READ, false);
+        }
+    }
+
+    /**
+     * Write the queued buffers, called by the loop.
+     */
+    void onWritable() {
+        boolean close = false;
+
+        writeLock.lock();
+        try {
+            try {
+                while (!queue.isEmpty()) {
+                    ByteBuffer buffer = queue.peek();
+                    queued -= channel.write(buffer);
+
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+
+                    queue.poll();
+                }
+            } catch (IOException e) {
+                close = true;
+            }
+
+            if (queue.isEmpty()) {
+                interest(SelectionKey.OP_WRITE, false);
+                drained.signalAll();
+                close |= closeWhenFlushed;
+            } else if (queued <= LOW_WATERMARK) {
+                drained.signalAll();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Closing takes other locks, never while holding the write lock
+        if (close) {
+            close();
+        }
+    }
+
+    /**
+     * Parse as many requests as possible, stops at the first one which gets dispatched.
+     */
+    private void process() {
+        while (!active && !closing && !closed) {
+            try {
+                if (pending == null && !served && engine.isHttp2()) {
+                    int preface = Http2Connection.matchPreface(input);
+
+                    if (preface == 0) {
+                        return;
+                    }
+
+                    if (preface > 0) {
+                        startHttp2(null);
+                        return;
+                    }
+                }
+
+                if (pending == null) {
+                    int end = findHeadEnd();
+
+                    if (end == -1) {
+                        if (!input.hasRemaining()) {
+                            reject(431, "Request Header Fields Too Large");
+                        }
+
+                        return;
+                    }
+
+                    pending = parseHead(end);
+                    consume(end);
+
+                    if (pending.expectContinue && !pending.isComplete(input.position())) {
+                        write(new ByteBuffer[]{ByteBuffer.wrap(CONTINUE)}, 1);
+                    }
+                }
+
+                if (!pending.readBody()) {
+                    return;
+                }
+            } catch (HttpError e) {
+                reject(e.status, e.getMessage());
+                return;
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            PendingRequest request = pending;
+            pending = null;
+
+            if (engine.isHttp2() && request.isUpgrade()) {
+                startHttp2(request);
+                return;
+            }
+
+            served = true;
+            active = true;
+
+            engine.dispatch(new NioExchange(this, request.method, request.uri, request.protocol,
+                    request.headers, request.body, request.size, request.keepAlive));
+        }
+    }
+
+    /**
+     * Hand the connection over to HTTP/2, the input buffer is enlarged to hold an frame of the maximal size.
+     *
+     * @param upgrade The request which asked for the upgrade, null for prior knowledge.
+     */
+    private void startHttp2(PendingRequest upgrade) {
+        served = true;
+
+        ByteBuffer larger = ByteBuffer.allocateDirect(engine.getPool().getBufferSize() * 2);
+        input.flip();
+        larger.put(input);
+        engine.getPool().release(input);
+        input = larger;
+
+        http2 = new Http2Connection(engine, this);
+
+        try {
+            if (upgrade != null) {
+                write(new ByteBuffer[]{ByteBuffer.wrap(SWITCHING_PROTOCOLS)}, 1);
+                http2.start(upgrade.settings);
+                http2.upgrade(upgrade.method, upgrade.uri, upgrade.headers, upgrade.body, upgrade.size);
+            } else {
+                http2.start(null);
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        interest(SelectionKey.OP_READ, true);
+        http2.process(input);
+    }
+
+    /**
+     * Find the end of the request head, empty lines before an request are skipped.
+     *
+     * @return The index after the empty line which ends the head, -1 if it isn't complete.
+     */
+    private int findHeadEnd() {
+        while (input.position() >= 2 && input.get(0) == '\r' && input.get(1) == '\n') {
+            consume(2);
+            scanned = 0;
+        }
+
+        int limit = input.position();
+        for (int i = Math.max(scanned - 3, 0); i + 3 < limit; i++) {
+            if (input.get(i + 3) == '\n' && input.get(i + 2) == '\r' && input.get(i + 1) == '\n' && input.get(i) == '\r') {
+                scanned = 0;
+                return i + 4;
+            }
+        }
+
+        scanned = limit;
+        return -1;
+    }
+
+    private PendingRequest parseHead(int end) throws HttpError {
+        ByteBuffer view = input.duplicate();
+        view.flip();
+
+        byte[] head = new byte[end];
+        view.get(head, 0, end);
+
+        // Request line
+        int lineEnd = indexOfLineEnd(head, 0, end);
+        String line = new String(head, 0, lineEnd, StandardCharsets.ISO_8859_1);
+
+        int first = line.indexOf(' ');
+        int last = line.lastIndexOf(' ');
+        if (first <= 0 || last == first) {
+            throw new HttpError(400, "Bad Request");
+        }
+
+        String method = line.substring(0, first);
+        String target = line.substring(first + 1, last);
+        String protocol = line.substring(last + 1);
+
+        if (!protocol.startsWith("HTTP/1.")) {
+            throw new HttpError(505, "HTTP Version Not Supported");
+        }
+
+        URI uri;
+        try {
+            uri = new URI(target);
+        } catch (URISyntaxException e) {
+            throw new HttpError(400, "Bad Request");
+        }
+
+        // Header fields, folded lines are appended to the previous value
+        Headers headers = new Headers();
+        String name = null;
+        StringBuilder value = new StringBuilder();
+
+        for (int pos = lineEnd + 2; pos < end - 2; ) {
+            int next = indexOfLineEnd(head, pos, end);
+            String field = new String(head, pos, next - pos, StandardCharsets.ISO_8859_1);
+            pos = next + 2;
+
+            if (field.charAt(0) == ' ' || field.charAt(0) == '\t') {
+                if (name == null) {
+                    throw new HttpError(400, "Bad Request");
+                }
+
+                value.append(' ').append(field.trim());
+                continue;
+            }
+
+            if (name != null) {
+                headers.add(name, value.toString());
+            }
+
+            int colon = field.indexOf(':');
+            if (colon <= 0 || field.charAt(colon - 1) == ' ') {
+                throw new HttpError(400, "Bad Request");
+            }
+
+            name = field.substring(0, colon);
+            value.setLength(0);
+            value.append(field.substring(colon + 1).trim());
+        }
+
+        if (name != null) {
+            headers.add(name, value.toString());
+        }
+
+        return new PendingRequest(method, uri, protocol, headers);
+    }
+
+    private static int indexOfLineEnd(byte[] head, int from, int end) {
+        for (int i = from; i < end - 1; i++) {
+            if (head[i] == '\r' && head[i + 1] == '\n') {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Remove the first bytes from the input buffer.
+     */
+    private void consume(int length) {
+        input.flip();
+        input.position(length);
+        input.compact();
+    }
+
+    /**
+     * Answer an request which cannot be served and close the connection afterwards.
+     */
+    private void reject(int status, String reason) {
+        closing = true;
+        pending = null;
+        interest(SelectionKey.OP_READ, false);
+
+        byte[] response = ("HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        try {
+            write(new ByteBuffer[]{ByteBuffer.wrap(response)}, 1);
+            closeWhenFlushed();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Write buffers to the socket. Bytes the socket doesn't take are copied to the queue,
+     * the calling thread blocks while the queue is above the high watermark.
+     * The buffers can be reused as soon as this method returns.
+     *
+     * @param buffers The buffers.
+     * @param count   The amount of buffers to write.
+     * @throws IOException If the connection is closed.
+     */
+    void write(ByteBuffer[] buffers, int count) throws IOException {
+        enqueue(buffers, count);
+        awaitDrained();
+    }
+
+    /**
+     * Write buffers to the socket without ever blocking, bytes the socket doesn't take are queued.
+     * Buffers written by several threads in one call are never interleaved.
+     *
+     * @param buffers The buffers.
+     * @param count   The amount of buffers to write.
+     * @throws IOException If the connection is closed.
+     */
+    void enqueue(ByteBuffer[] buffers, int count) throws IOException {
+        boolean failed = false;
+
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Connection closed.");
+            }
+
+            if (queue.isEmpty()) {
+                long remaining = 0;
+                for (int i = 0; i < count; i++) {
+                    remaining += buffers[i].remaining();
+                }
+
+                // Single gathering write, only repeated if the socket takes part of it
+                while (remaining > 0) {
+                    long written;
+                    try {
+                        written = channel.write(buffers, 0, count);
+                    } catch (IOException e) {
+                        failed = true;
+                        throw e;
+                    }
+
+                    if (written == 0) {
+                        break;
+                    }
+
+                    remaining -= written;
+                }
+
+                if (remaining == 0) {
+                    return;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                if (buffers[i].hasRemaining()) {
+                    ByteBuffer copy = ByteBuffer.allocate(buffers[i].remaining());
+                    copy.put(buffers[i]).flip();
+                    queue.add(copy);
+                    queued += copy.remaining();
+                }
+            }
+
+            loop.execute(() -> interest(SelectionKey.OP_WRITE, true));
+        } finally {
+            writeLock.unlock();
+
+            // The client is gone, closing takes other locks so never while holding the write lock
+            if (failed) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Block the calling thread while the queue is above the high watermark.
+     *
+     * @throws IOException If the connection is closed.
+     */
+    void awaitDrained() throws IOException {
+
+        // Never block the loop itself
+        if (loop.inLoop()) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            if (queued <= HIGH_WATERMARK) {
+                return;
+            }
+
+            while (queued > HIGH_WATERMARK && !closed) {
+                try {
+                    drained.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing.");
+                }
+            }
+
+            if (closed) {
+                throw new IOException("Connection closed.");
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Called when the response of the running exchange is complete.
+     *
+     * @param keepAlive False if the connection should be closed after the response.
+     */
+    void finish(boolean keepAlive) {
+        disconnectListener.set(null);
+        engine.finished();
+
+        loop.execute(() -> {
+            active = false;
+
+            if (closed) {
+                return;
+            }
+
+            if (!keepAlive || peerClosed) {
+                closing = true;
+                closeWhenFlushed();
+                return;
+            }
+
+            // Continue with the next pipelined request
+            lastActivity = System.currentTimeMillis();
+            interest(SelectionKey.OP_READ, true);
+            process();
+        });
+    }
+
+    /**
+     * Close the connection once all queued bytes are written.
+     */
+    void closeWhenFlushed() {
+        writeLock.lock();
+        try {
+            if (!queue.isEmpty()) {
+                closeWhenFlushed = true;
+                return;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        close();
+    }
+
+    /**
+     * Close the connection immediately.
+     */
+    void close() {
+        if (!loop.inLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException ignore) { }
+
+        writeLock.lock();
+        try {
+            queue.clear();
+            queued = 0;
+            drained.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+
+        engine.getPool().release(input);
+        input = null;
+        loop.remove(this);
+
+        disconnected();
+
+        if (http2 != null) {
+            http2.onClose();
+        }
+    }
+
+    /**
+     * Set the listener of the running exchange which is called if the client goes away.
+     *
+     * @param listener The listener.
+     */
+    void onDisconnect(Runnable listener) {
+        disconnectListener.set(listener);
+
+        // The client can already be gone
+        if (closed) {
+            disconnected();
+        }
+    }
+
+    private void disconnected() {
+        Runnable listener = disconnectListener.getAndSet(null);
+
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Close the connection if it was idle for too long, called by the loop.
+     */
+    void checkIdle(long now) {
+        if (now - lastActivity <= engine.getIdleTimeout()) {
+            return;
+        }
+
+        if (http2 != null) {
+            if (http2.isIdle()) {
+                http2.shutdown();
+            }
+        } else if (!active) {
+            close();
+        }
+    }
+
+    /**
+     * Run an task on the thread of the loop.
+     *
+     * @param task The task.
+     */
+    void execute(Runnable task) {
+        loop.execute(task);
+    }
+
+    /**
+     * @return True if the current thread is the thread of the loop.
+     */
+    boolean inLoop() {
+        return loop.inLoop();
+    }
+
+    private void interest(int op, boolean enabled) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        int ops = key.interestOps();
+        key.interestOps(enabled ? ops | op : ops & ~op);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    BufferPool getPool() {
+        return engine.getPool();
+    }
+
+    private static InetSocketAddress toInet(SocketAddress address) {
+        return address instanceof InetSocketAddress ? (InetSocketAddress) address : null;
+    }
+
+    /**
+     * An request whose head is parsed and whose body is still being read.
+     */
+    private final class PendingRequest {
+        private final String method;
+        private final URI uri;
+        private final String protocol;
+        private final Headers headers;
+        private final boolean keepAlive;
+        private final boolean expectContinue;
+        private final byte[] settings;
+
+        private final boolean chunked;
+        private final long length;
+
+        private byte[] body;
+        private int size;
+
+        // State of the chunked decoder
+        private boolean trailer;
+        private long chunk;
+        private boolean chunkEnd;
+
+        private PendingRequest(String method, URI uri, String protocol, Headers headers) throws HttpError {
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.headers = headers;
+
+            String connection = lower(headers.getFirst("Connection"));
+            this.keepAlive = protocol.equals("HTTP/1.0")
+                    ? connection.contains("keep-alive")
+                    : !connection.contains("close");
+
+            String encoding = lower(headers.getFirst("Transfer-Encoding"));
+            String contentLength = headers.getFirst("Content-Length");
+
+            if (!encoding.isEmpty()) {
+                if (!encoding.endsWith("chunked")) {
+                    throw new HttpError(400, "Bad Request");
+                }
+
+                this.chunked = true;
+                this.length = -1;
+            } else if (contentLength != null) {
+                this.chunked = false;
+
+                try {
+                    this.length = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new HttpError(400, "Bad Request");
+                }
+
+                if (length < 0) {
+                    throw new HttpError(400, "Bad Request");
+                }
+
+                if (length > engine.getMaxBodySize()) {
+                    throw new HttpError(413, "Payload Too Large");
+                }
+            } else {
+                this.chunked = false;
+                this.length = 0;
+            }
+
+            this.expectContinue = (chunked || length > 0)
+                    && protocol.equals("HTTP/1.1")
+                    && "100-continue".equalsIgnoreCase(headers.getFirst("Expect"));
+            this.settings = upgradeSettings(connection, protocol, headers);
+        }
+
+        /**
+         * @return The decoded 'HTTP2-Settings' of an valid upgrade to h2c, null if it isn't one.
+         */
+        private byte[] upgradeSettings(String connection, String protocol, Headers headers) {
+            List<String> settings = headers.get("HTTP2-Settings");
+
+            if (!protocol.equals("HTTP/1.1") || settings == null || settings.size() != 1
+                    || !lower(headers.getFirst("Upgrade")).contains("h2c")
+                    || !connection.contains("upgrade") || !connection.contains("http2-settings")) {
+                return null;
+            }
+
+            try {
+                return Base64.getUrlDecoder().decode(settings.get(0).trim());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return True if the request asks for an upgrade to h2c.
+         */
+        private boolean isUpgrade() {
+            return settings != null;
+        }
+
+        /**
+         * @param available The bytes which are already buffered.
+         * @return True if the whole body is already buffered.
+         */
+        private boolean isComplete(int available) {
+            return !chunked && available >= length;
+        }
+
+        /**
+         * Move the body from the input buffer into the request.
+         *
+         * @return True if the body is complete.
+         */
+        private boolean readBody() throws HttpError {
+            if (!chunked) {
+                int n = (int) Math.min(input.position(), length - size);
+                if (n > 0) {
+
+                    // The buffer grows with the data which arrived, not with the announced length
+                    ensureCapacity(size + n, length);
+                    input.flip();
+                    input.get(body, size, n);
+                    input.compact();
+                    size += n;
+                }
+
+                return size == length;
+            }
+
+            input.flip();
+            try {
+                return decodeChunks();
+            } finally {
+                input.compact();
+            }
+        }
+
+        private boolean decodeChunks() throws HttpError {
+            while (true) {
+                if (chunk > 0) {
+                    int n = (int) Math.min(input.remaining(), chunk);
+                    if (n == 0) {
+                        return false;
+                    }
+
+                    ensureCapacity(size + n, engine.getMaxBodySize());
+                    input.get(body, size, n);
+                    size += n;
+                    chunk -= n;
+
+                    if (chunk > 0) {
+                        return false;
+                    }
+
+                    chunkEnd = true;
+                }
+
+                String line = readLine();
+                if (line == null) {
+                    return false;
+                }
+
+                if (chunkEnd) {
+                    if (!line.isEmpty()) {
+                        throw new HttpError(400, "Bad Request");
+                    }
+
+                    chunkEnd = false;
+                } else if (trailer) {
+
+                    // Trailer fields are dropped, the empty line ends the body
+                    if (line.isEmpty()) {
+                        return true;
+                    }
+                } else {
+                    int extension = line.indexOf(';');
+
+                    try {
+                        chunk = Long.parseLong((extension == -1 ? line : line.substring(0, extension)).trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new HttpError(400, "Bad Request");
+                    }
+
+                    if (chunk < 0) {
+                        throw new HttpError(400, "Bad Request");
+                    }
+
+                    if (size + chunk > engine.getMaxBodySize()) {
+                        throw new HttpError(413, "Payload Too Large");
+                    }
+
+                    trailer = chunk == 0;
+                }
+            }
+        }
+
+        private String readLine() throws HttpError {
+            int start = input.position();
+
+            for (int i = start; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    int end = i > start && input.get(i - 1) == '\r' ? i - 1 : i;
+                    byte[] line = new byte[end - start];
+                    input.get(line);
+                    input.position(i + 1);
+                    return new String(line, StandardCharsets.ISO_8859_1);
+                }
+            }
+
+            if (input.remaining() > MAX_LINE) {
+                throw new HttpError(400, "Bad Request");
+            }
+
+            return null;
+        }
+
+        /**
+         * Grow the body by doubling, at most to the limit.
+         */
+        private void ensureCapacity(int capacity, long limit) {
+            if (body == null) {
+                body = new byte[(int) Math.min(limit, Math.max(capacity, 1024))];
+            } else if (body.length < capacity) {
+                byte[] grown = new byte[(int) Math.min(limit, Math.max(capacity, body.length * 2L))];
+                System.arraycopy(body, 0, grown, 0, size);
+                body = grown;
+            }
+        }
+
+        private String lower(String value) {
+            return value == null ? "" : value.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * An request which is answered by the connection itself.
+     */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private HttpError(int status, String reason) {
+            super(reason, null, false, false);
+            this.status = status;
+        }
+    }
+}
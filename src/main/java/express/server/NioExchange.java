@@ -0,0 +1,422 @@
+package express.server;
+
+import com.sun.net.httpserver.Headers;
+import express.utils.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Exchange of the {@link NioServerEngine}. The request is completely read
+ * before the handler runs. The status line and headers are kept back until the
+ * first body bytes are flushed, so both go out in the same gathering write.
+ */
+final class NioExchange implements EngineExchange {
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final String[] STATUS_LINES = new String[600];
+
+    // How the response body is delimited
+    private static final int NONE = 0;
+    private static final int FIXED = 1;
+    private static final int CHUNKED = 2;
+    private static final int UNTIL_CLOSE = 3;
+
+    private static volatile String date;
+    private static volatile long dateSecond;
+
+    static {
+        for (Status status : Status.values()) {
+            STATUS_LINES[status.getCode()] = "HTTP/1.1 " + status.getCode() + " " + status.getDescription() + "\r\n";
+        }
+    }
+
+    private final NioConnection connection;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final InputStream requestBody;
+    private final Headers responseHeaders;
+    private final ResponseBody responseBody;
+    private final ReentrantLock lock;
+
+    private volatile boolean keepAlive;
+    private volatile boolean headersSent;
+    private int framing;
+    private long remaining;
+    private ByteBuffer head;
+
+    NioExchange(NioConnection connection, String method, URI uri, String protocol, Headers requestHeaders, byte[] body, int size, boolean keepAlive) {
+        this.connection = connection;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.requestBody = body == null ? new ByteArrayInputStream(new byte[0]) : new ByteArrayInputStream(body, 0, size);
+        this.responseHeaders = new Headers();
+        this.responseBody = new ResponseBody();
+        this.lock = new ReentrantLock();
+        this.keepAlive = keepAlive;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.getLocalAddress();
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public boolean isDisconnected() {
+        return connection.isClosed();
+    }
+
+    @Override
+    public void onDisconnect(Runnable listener) {
+        connection.onDisconnect(listener);
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long contentLength) throws IOException {
+        lock.lock();
+        try {
+            if (headersSent) {
+                throw new IOException("Headers already sent.");
+            }
+
+            boolean bodyless = status < 200 || status == 204 || status == 304;
+            boolean isHead = method.equals("HEAD");
+
+            if (isHead || bodyless || contentLength < 0) {
+                framing = NONE;
+
+                if (contentLength > 0 && !bodyless) {
+                    responseHeaders.set("Content-Length", Long.toString(contentLength));
+                } else if (contentLength < 0 && !bodyless && !isHead) {
+                    responseHeaders.set("Content-Length", "0");
+                }
+            } else if (contentLength > 0) {
+                framing = FIXED;
+                remaining = contentLength;
+                responseHeaders.set("Content-Length", Long.toString(contentLength));
+            } else if (protocol.equals("HTTP/1.1")) {
+                framing = CHUNKED;
+                responseHeaders.set("Transfer-Encoding", "chunked");
+            } else {
+
+                // HTTP/1.0 clients only know the end of the connection as end of the body
+                framing = UNTIL_CLOSE;
+                keepAlive = false;
+            }
+
+            if (!keepAlive) {
+                responseHeaders.set("Connection", "close");
+            } else if (protocol.equals("HTTP/1.0")) {
+                responseHeaders.set("Connection", "keep-alive");
+            }
+
+            if (!responseHeaders.containsKey("Date")) {
+                responseHeaders.set("Date", currentDate());
+            }
+
+            head = encodeHead(status);
+            headersSent = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ByteBuffer encodeHead(int status) {
+        StringBuilder sb = new StringBuilder(256);
+        String statusLine = status >= 100 && status < STATUS_LINES.length ? STATUS_LINES[status] : null;
+        sb.append(statusLine != null ? statusLine : "HTTP/1.1 " + status + " \r\n");
+
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            for (String value : entry.getValue()) {
+                sb.append(entry.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+
+        sb.append("\r\n");
+
+        BufferPool pool = connection.getPool();
+        ByteBuffer buffer = sb.length() <= pool.getBufferSize()
+                ? pool.acquire()
+                : ByteBuffer.allocate(sb.length());
+
+        for (int i = 0; i < sb.length(); i++) {
+            buffer.put((byte) sb.charAt(i));
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void close() {
+        try {
+            responseBody.close();
+        } catch (IOException ignore) { }
+    }
+
+    @Override
+    public void abort() {
+        reject(500);
+    }
+
+    /**
+     * Answer the request with an empty response and close the connection afterwards.
+     *
+     * @param status The response status, only used if the headers are still pending.
+     */
+    @Override
+    public void reject(int status) {
+        if (responseBody.closed) {
+            return;
+        }
+
+        keepAlive = false;
+
+        if (!headersSent) {
+            responseHeaders.clear();
+
+            try {
+                sendResponseHeaders(status, -1);
+            } catch (IOException ignore) { }
+        }
+
+        close();
+    }
+
+    /**
+     * @return The connection which received the request.
+     */
+    NioConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return The current date for the 'Date' header, formatted once per second.
+     */
+    static String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+
+        if (second != dateSecond) {
+            date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+            dateSecond = second;
+        }
+
+        return date;
+    }
+
+    /**
+     * Collects the body in an pooled direct buffer, which is written
+     * together with the pending head when it is full or flushed.
+     */
+    private final class ResponseBody extends OutputStream {
+
+        private ByteBuffer body;
+        private volatile boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("Stream is closed.");
+                }
+
+                if (!headersSent) {
+                    throw new IOException("Headers not sent.");
+                }
+
+                if (framing == NONE) {
+                    return;
+                }
+
+                if (framing == FIXED) {
+                    if (len > remaining) {
+                        throw new IOException("Too many bytes for the content length.");
+                    }
+
+                    remaining -= len;
+                }
+
+                while (len > 0) {
+                    if (body == null) {
+                        body = connection.getPool().acquire();
+                    }
+
+                    int n = Math.min(len, body.remaining());
+                    body.put(b, off, n);
+                    off += n;
+                    len -= n;
+
+                    if (!body.hasRemaining()) {
+                        send(false);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                if (!closed && headersSent) {
+                    send(false);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+
+                try {
+                    if (!headersSent) {
+                        throw new IOException("Headers not sent.");
+                    }
+
+                    // An incomplete body cannot be followed by an other response
+                    if (framing == FIXED && remaining > 0) {
+                        keepAlive = false;
+                    }
+
+                    send(true);
+                } catch (IOException e) {
+                    keepAlive = false;
+                    throw e;
+                } finally {
+                    connection.getPool().release(body);
+                    connection.getPool().release(head);
+                    body = null;
+                    head = null;
+                    connection.finish(keepAlive && framing != UNTIL_CLOSE);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Write the pending head and the buffered body with one gathering write.
+         */
+        private void send(boolean last) throws IOException {
+            ByteBuffer[] buffers = new ByteBuffer[5];
+            int count = 0;
+
+            if (head != null) {
+                buffers[count++] = head;
+            }
+
+            boolean data = body != null && body.position() > 0;
+            if (data) {
+                body.flip();
+
+                if (framing == CHUNKED) {
+                    buffers[count++] = ByteBuffer.wrap((Integer.toHexString(body.remaining()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    buffers[count++] = body;
+                    buffers[count++] = ByteBuffer.wrap(CRLF);
+                } else {
+                    buffers[count++] = body;
+                }
+            }
+
+            if (last && framing == CHUNKED) {
+                buffers[count++] = ByteBuffer.wrap(LAST_CHUNK);
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            try {
+                connection.write(buffers, count);
+            } finally {
+                if (head != null) {
+                    connection.getPool().release(head);
+                    head = null;
+                }
+
+                if (data) {
+                    body.clear();
+                }
+            }
+        }
+    }
+}
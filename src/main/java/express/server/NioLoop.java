@@ -0,0 +1,176 @@
+package express.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * One selector with its own thread. The loop owns the connections which are
+ * registered on it, everything which changes their state runs on this thread.
+ * Other threads hand over work with {@link #execute(Runnable)}.
+ */
+final class NioLoop implements Runnable {
+
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private final NioServerEngine engine;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private final HashSet<NioConnection> connections;
+
+    private volatile boolean running;
+    private long lastIdleCheck;
+
+    NioLoop(NioServerEngine engine, String name) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.connections = new HashSet<>();
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stop the loop, all connections will be closed.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Register an accepted connection on this loop.
+     *
+     * @param channel The channel of the connection.
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(engine, this, channel, key);
+                key.attach(connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                engine.getLogger().log(Level.INFO, "Failed to register connection.", e);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Run an task on the thread of this loop.
+     *
+     * @param task The task.
+     */
+    void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * @return True if the current thread is the thread of this loop.
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void remove(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        lastIdleCheck = System.currentTimeMillis();
+
+        while (running) {
+            try {
+                selector.select(IDLE_CHECK_INTERVAL);
+            } catch (IOException e) {
+                engine.getLogger().log(Level.WARNING, "Selector failed.", e);
+                break;
+            }
+
+            for (Runnable task; (task = tasks.poll()) != null; ) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection == null || !key.isValid()) {
+                    continue;
+                }
+
+                try {
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                } catch (RuntimeException e) {
+                    engine.getLogger().log(Level.WARNING, "Connection failed.", e);
+                    connection.close();
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+                lastIdleCheck = now;
+
+                for (NioConnection connection : new ArrayList<>(connections)) {
+                    connection.checkIdle(now);
+                }
+            }
+        }
+
+        for (Runnable task; (task = tasks.poll()) != null; ) {
+            task.run();
+        }
+
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ignore) { }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignore) { }
+    }
+}
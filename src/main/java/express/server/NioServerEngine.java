@@ -0,0 +1,296 @@
+package express.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Non-blocking HTTP/1.1 engine on top of <code>java.nio</code>. An acceptor thread
+ * hands new connections round-robin to one selector loop per core. Requests are
+ * parsed straight from pooled direct buffers and dispatched to the executor,
+ * connections are kept alive and pipelined requests are served one after an other.
+ * Status line, headers and body are written with a single gathering write.
+ * HTTP/2 over cleartext (h2c) is served on the same port, with prior knowledge
+ * or after an upgrade, its streams are dispatched in parallel. Besides TCP the
+ * engine can listen on an unix domain socket, e.g. behind an local reverse proxy.
+ * <pre>
+ *     Express app = new Express();
+ *     app.setEngine(new NioServerEngine());
+ * </pre>
+ */
+public class NioServerEngine implements ServerEngine {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int BACKLOG = 1024;
+    private static final int MAX_POOLED = 1024;
+
+    private final Logger logger;
+    private final int selectors;
+    private final BufferPool pool;
+    private final AtomicInteger active;
+
+    private volatile long idleTimeout;
+    private volatile long maxBodySize;
+    private volatile boolean http2;
+
+    private volatile ServerSocketChannel serverChannel;
+    private volatile Path socketPath;
+    private volatile NioLoop[] loops;
+    private volatile Thread acceptor;
+
+    private Executor executor;
+    private ExchangeHandler handler;
+
+    {
+        // Initialize with default data
+        this.logger = Logger.getLogger(getClass().getSimpleName());
+        this.pool = new BufferPool(BUFFER_SIZE, MAX_POOLED);
+        this.active = new AtomicInteger();
+        this.idleTimeout = 60_000;
+        this.maxBodySize = 8L * 1024 * 1024;
+        this.http2 = true;
+    }
+
+    /**
+     * Create an engine with one selector per available processor.
+     */
+    public NioServerEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param selectors The amount of selector threads.
+     */
+    public NioServerEngine(int selectors) {
+        if (selectors < 1) {
+            throw new IllegalArgumentException("At least one selector is required.");
+        }
+
+        this.selectors = selectors;
+    }
+
+    /**
+     * @param idleTimeout The time in milliseconds after which an idle connection will be closed.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param maxBodySize The maximal size of an request body in bytes, larger requests get an 413.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * @param http2 False to serve only HTTP/1.1, h2c is enabled by default.
+     */
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * @return True if h2c is served.
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    @Override
+    public synchronized void start(InetSocketAddress address, Executor executor, ExchangeHandler handler) throws IOException {
+        checkStopped();
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+
+        try {
+            serverChannel.bind(address, BACKLOG);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+
+        start(serverChannel, executor, handler);
+    }
+
+    /**
+     * Bind the engine to an unix domain socket, requires Java 16 or newer.
+     */
+    @Override
+    public synchronized void start(Path path, Executor executor, ExchangeHandler handler) throws IOException {
+        checkStopped();
+        start(UnixSockets.bind(path, BACKLOG), executor, handler);
+        this.socketPath = path;
+    }
+
+    private void checkStopped() throws IOException {
+        if (serverChannel != null) {
+            throw new IOException("The engine is already running.");
+        }
+    }
+
+    private void start(ServerSocketChannel serverChannel, Executor executor, ExchangeHandler handler) throws IOException {
+        this.executor = executor;
+        this.handler = handler;
+
+        NioLoop[] loops = new NioLoop[selectors];
+        try {
+            for (int i = 0; i < selectors; i++) {
+                loops[i] = new NioLoop(this, "express-nio-" + i);
+            }
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+
+        for (NioLoop loop : loops) {
+            loop.start();
+        }
+
+        this.serverChannel = serverChannel;
+        this.loops = loops;
+        this.acceptor = new Thread(() -> accept(serverChannel, loops), "express-nio-acceptor");
+        this.acceptor.setDaemon(false);
+        this.acceptor.start();
+    }
+
+    private void accept(ServerSocketChannel serverChannel, NioLoop[] loops) {
+        int next = 0;
+
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+
+                // Unix domain sockets have no nagle to disable
+                if (channel.getRemoteAddress() instanceof InetSocketAddress) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+
+                loops[next++ % loops.length].register(channel);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                logger.log(Level.INFO, "Failed to accept connection.", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stop(int delay) {
+        ServerSocketChannel serverChannel = this.serverChannel;
+        NioLoop[] loops = this.loops;
+
+        if (serverChannel == null) {
+            return;
+        }
+
+        try {
+            serverChannel.close();
+        } catch (IOException ignore) { }
+
+        // Give running exchanges the chance to finish
+        long deadline = System.currentTimeMillis() + delay * 1000L;
+        while (active.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (NioLoop loop : loops) {
+            loop.shutdown();
+        }
+
+        // The socket file stays after the channel was closed
+        if (socketPath != null) {
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException ignore) { }
+        }
+
+        this.serverChannel = null;
+        this.socketPath = null;
+        this.loops = null;
+        this.acceptor = null;
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        ServerSocketChannel serverChannel = this.serverChannel;
+
+        try {
+            SocketAddress address = serverChannel == null ? null : serverChannel.getLocalAddress();
+            return address instanceof InetSocketAddress ? (InetSocketAddress) address : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The path of the unix domain socket, null if the engine isn't running or is bound to an port.
+     */
+    public Path getSocketPath() {
+        return socketPath;
+    }
+
+    /**
+     * Run the handler for an parsed request on the executor.
+     *
+     * @param exchange The exchange.
+     */
+    void dispatch(EngineExchange exchange) {
+        active.incrementAndGet();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.handle(exchange);
+                } catch (Throwable e) {
+                    logger.log(Level.WARNING, "Exchange handler failed.", e);
+                    exchange.abort();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            exchange.reject(503);
+        }
+    }
+
+    /**
+     * Called once for every dispatched exchange when its response is finished.
+     */
+    void finished() {
+        active.decrementAndGet();
+    }
+
+    BufferPool getPool() {
+        return pool;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    Logger getLogger() {
+        return logger;
+    }
+}
@@ -0,0 +1,50 @@
+package express.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * The transport which accepts connections and turns requests into {@link Exchange}s.
+ * <code>Express.listen</code> delegates to the engine, the default is the
+ * {@link JdkServerEngine} which uses the http server of the JDK.
+ */
+public interface ServerEngine {
+
+    /**
+     * Bind the engine and start accepting requests.
+     *
+     * @param address  The address to bind to.
+     * @param executor The executor which runs the handler.
+     * @param handler  The handler for every exchange.
+     * @throws IOException If the engine cannot be started.
+     */
+    void start(InetSocketAddress address, Executor executor, ExchangeHandler handler) throws IOException;
+
+    /**
+     * Bind the engine to an unix domain socket and start accepting requests.
+     *
+     * @param path     The path of the socket file, it must not exist yet.
+     * @param executor The executor which runs the handler.
+     * @param handler  The handler for every exchange.
+     * @throws IOException If the engine cannot be started or doesn't support unix domain sockets.
+     */
+    default void start(Path path, Executor executor, ExchangeHandler handler) throws IOException {
+        throw new IOException(getClass().getSimpleName() + " doesn't support unix domain sockets.");
+    }
+
+    /**
+     * Stop accepting requests and close all connections.
+     *
+     * @param delay The maximal time in seconds to wait for running exchanges.
+     */
+    void stop(int delay);
+
+    /**
+     * @return The bound address, null if the engine isn't running or is bound to an unix domain socket.
+     */
+    InetSocketAddress getAddress();
+}
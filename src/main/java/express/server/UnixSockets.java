@@ -0,0 +1,62 @@
+package express.server;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Unix domain sockets of the {@link NioServerEngine}. They exist since Java 16,
+ * the library is still compiled for Java 11, so everything is looked up at runtime.
+ * On older JVMs opening an socket fails with an IOException.
+ */
+final class UnixSockets {
+
+    private UnixSockets() {
+    }
+
+    /**
+     * Open an server channel which is bound to an socket file.
+     *
+     * @param path    The path of the socket file, it must not exist yet.
+     * @param backlog The maximal amount of pending connections.
+     * @return The bound channel.
+     * @throws IOException If the socket cannot be bound or the JVM has no unix domain sockets.
+     */
+    static ServerSocketChannel bind(Path path, int backlog) throws IOException {
+        ServerSocketChannel serverChannel;
+        SocketAddress address;
+
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            Method open = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            Method of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+
+            address = (SocketAddress) of.invoke(null, path);
+            serverChannel = (ServerSocketChannel) open.invoke(null, unix);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Cannot open an unix domain socket.", e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets require Java 16 or newer.");
+        }
+
+        try {
+            serverChannel.bind(address, backlog);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+
+        return serverChannel;
+    }
+}
@@ -0,0 +1,347 @@
+package express.server;
+
+import express.http.Priority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @author Simon Reinisch
+ * <p>
+ * Bounded worker pool with an bounded queue per priority. If all workers are busy
+ * and the queue is full, an new task is rejected right away instead of waiting.
+ * An task with an higher priority replaces the newest queued task of the lowest
+ * priority, which is then rejected. Express answers rejected requests with an
+ * '503 Service Unavailable' and an 'Retry-After' header.
+ */
+public class WorkerPool implements Executor {
+
+    private static final Priority[] PRIORITIES = Priority.values();
+    private static final long KEEP_ALIVE = TimeUnit.SECONDS.toNanos(60);
+
+    private final Logger logger;
+    private final int maxThreads;
+    private final int maxQueued;
+
+    private final ReentrantLock lock;
+    private final Condition available;
+    private final List<ArrayDeque<Task>> queues;
+    private final AtomicInteger threadNumber;
+    private final AtomicLong rejected;
+
+    private int threads;
+    private int idle;
+    private int queued;
+    private boolean shutdown;
+
+    private volatile int retryAfter;
+    private volatile String priorityHeader;
+
+    /**
+     * @param maxThreads The maximal amount of worker threads.
+     * @param maxQueued  The maximal amount of tasks which wait for an worker.
+     */
+    public WorkerPool(int maxThreads, int maxQueued) {
+        if (maxThreads < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("At least one thread and a non-negative queue size are required.");
+        }
+
+        this.logger = Logger.getLogger(getClass().getSimpleName());
+        this.maxThreads = maxThreads;
+        this.maxQueued = maxQueued;
+        this.lock = new ReentrantLock();
+        this.available = lock.newCondition();
+        this.queues = new ArrayList<>(PRIORITIES.length);
+        this.threadNumber = new AtomicInteger();
+        this.rejected = new AtomicLong();
+        this.retryAfter = 1;
+
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Run an task with normal priority.
+     *
+     * @param command The task.
+     * @throws RejectedExecutionException If the pool is saturated.
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (!submit(command, Priority.NORMAL, null)) {
+            throw new RejectedExecutionException("Worker pool is saturated.");
+        }
+    }
+
+    /**
+     * Admit an task if an worker or a queue slot is free. If the queue is full,
+     * the newest queued task with a lower priority is dropped for it.
+     *
+     * @param task     The task.
+     * @param priority The priority of the task.
+     * @param onReject Called if the task is dropped from the queue later on, null if it cannot be dropped.
+     * @return False if the task was rejected, it will never run.
+     */
+    public boolean submit(Runnable task, Priority priority, Runnable onReject) {
+        return submit(task, priority, onReject, true);
+    }
+
+    /**
+     * Admit an task only if an worker or a queue slot is free, other queued tasks are never dropped for it.
+     *
+     * @param task     The task.
+     * @param priority The priority of the task.
+     * @return False if the pool is saturated, the task will never run.
+     */
+    public boolean offer(Runnable task, Priority priority) {
+        return submit(task, priority, null, false);
+    }
+
+    private boolean submit(Runnable task, Priority priority, Runnable onReject, boolean drop) {
+        Task dropped = null;
+
+        lock.lock();
+        try {
+            if (shutdown) {
+                rejected.incrementAndGet();
+                return false;
+            }
+
+            // Idle and not yet started workers take the task immediately, it never waits in the queue
+            if (queued >= maxQueued + idle + maxThreads - threads) {
+                dropped = drop ? dropLower(priority) : null;
+
+                // An offered task is run by the caller instead, it doesn't count as rejected
+                if (dropped == null) {
+                    if (drop) {
+                        rejected.incrementAndGet();
+                    }
+
+                    return false;
+                }
+            }
+
+            queues.get(priority.ordinal()).add(new Task(task, onReject));
+            queued++;
+
+            if (idle > 0) {
+                available.signal();
+            }
+
+            if (queued > idle && threads < maxThreads) {
+                startWorker();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (dropped != null) {
+            rejected.incrementAndGet();
+            dropped.reject();
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the newest task of the lowest priority below an other priority.
+     */
+    private Task dropLower(Priority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            for (Iterator<Task> it = queues.get(i).descendingIterator(); it.hasNext(); ) {
+                Task task = it.next();
+
+                if (task.onReject != null) {
+                    it.remove();
+                    queued--;
+                    return task;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void startWorker() {
+        threads++;
+
+        Thread thread = new Thread(this::work, "express-worker-" + threadNumber.incrementAndGet());
+        thread.start();
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+
+            lock.lock();
+            try {
+                task = poll();
+
+                long timeout = KEEP_ALIVE;
+                while (task == null) {
+                    if (shutdown || timeout <= 0) {
+                        threads--;
+                        return;
+                    }
+
+                    idle++;
+                    try {
+                        timeout = available.awaitNanos(timeout);
+                    } catch (InterruptedException e) {
+                        timeout = 0;
+                    } finally {
+                        idle--;
+                    }
+
+                    task = poll();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.task.run();
+            } catch (Throwable e) {
+                logger.log(Level.WARNING, "Task failed.", e);
+            }
+        }
+    }
+
+    /**
+     * @return The oldest task of the highest priority, null if the queue is empty.
+     */
+    private Task poll() {
+        for (int i = queues.size() - 1; i >= 0; i--) {
+            Task task = queues.get(i).poll();
+
+            if (task != null) {
+                queued--;
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Stop the workers after the queued tasks are done, new tasks are rejected.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the priority of an request, the priority header can only raise it.
+     *
+     * @param exchange The exchange.
+     * @param priority The priority of the route.
+     * @return The priority for the admission.
+     */
+    public Priority priorityOf(Exchange exchange, Priority priority) {
+        String header = priorityHeader;
+
+        if (header != null) {
+            Priority requested = Priority.of(exchange.getRequestHeaders().getFirst(header));
+
+            if (requested != null && requested.compareTo(priority) > 0) {
+                return requested;
+            }
+        }
+
+        return priority;
+    }
+
+    /**
+     * Set an request header which contains the priority name, e.g. 'X-Priority: high'.
+     * Should only be set if the header is controlled by an trusted proxy.
+     *
+     * @param priorityHeader The header name, null to ignore headers.
+     */
+    public void setPriorityHeader(String priorityHeader) {
+        this.priorityHeader = priorityHeader;
+    }
+
+    /**
+     * @return The header which contains the priority, null if there is none.
+     */
+    public String getPriorityHeader() {
+        return priorityHeader;
+    }
+
+    /**
+     * @param retryAfter The seconds for the 'Retry-After' header of rejected requests.
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return The seconds for the 'Retry-After' header of rejected requests.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return The amount of tasks which are waiting for an worker.
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of workers which are running an task.
+     */
+    public int getActive() {
+        lock.lock();
+        try {
+            return threads - idle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of rejected tasks since the pool was created.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private static final class Task {
+        private final Runnable task;
+        private final Runnable onReject;
+
+        private Task(Runnable task, Runnable onReject) {
+            this.task = task;
+            this.onReject = onReject;
+        }
+
+        private void reject() {
+            onReject.run();
+        }
+    }
+}